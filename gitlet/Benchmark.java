@@ -0,0 +1,475 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/** Benchmarks for gitlet's storage paths.  Usage:
+ *      java gitlet.Benchmark codecs [FILE]
+ *      java gitlet.Benchmark commits [FILES]
+ *      java gitlet.Benchmark merge-base [COMMITS]
+ *      java gitlet.Benchmark status [FILES]
+ *      java gitlet.Benchmark startup [ARCHIVE]
+ *      java gitlet.Benchmark train
+ *  Each benchmark prints one line per variant it compares.  train is not
+ *  a benchmark: it runs every command once in the current directory, so
+ *  that the classes they load can be archived (see the cds target of
+ *  gitlet/Makefile).
+ */
+public class Benchmark {
+
+    /** Number of untimed rounds run before measuring. */
+    private static final int WARMUP_ROUNDS = 3;
+
+    /** Number of timed rounds averaged in a measurement. */
+    private static final int ROUNDS = 5;
+
+    public static void main(String... args) throws IOException {
+        if (args.length == 0) {
+            Utils.message("Usage: java gitlet.Benchmark codecs [FILE] | commits [FILES]"
+                          + " | merge-base [COMMITS] | status [FILES] | startup [ARCHIVE]"
+                          + " | train");
+            return;
+        }
+        switch (args[0]) {
+            case "codecs" :
+                codecs(args.length > 1 ? Utils.readContents(new File(args[1])) : sampleText(16 << 20));
+                break;
+            case "commits" :
+                commits(args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+                break;
+            case "merge-base" :
+                mergeBase(args.length > 1 ? Integer.parseInt(args[1]) : 200000);
+                break;
+            case "status" :
+                status(args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+                break;
+            case "startup" :
+                startup(args.length > 1 ? args[1] : null);
+                break;
+            case "train" :
+                train();
+                break;
+            default:
+                Utils.message("No benchmark with that name exists.");
+        }
+    }
+
+    /** Compare the size and throughput of every codec on DATA, split into
+     *  chunks the way stored blobs are. */
+    static void codecs(byte[] data) throws IOException {
+        List<byte[]> chunks = new ArrayList<byte[]>();
+        Chunker.split(new ByteArrayInputStream(data),
+            (chunk, length) -> chunks.add(Arrays.copyOf(chunk, length)));
+        Utils.message("%d bytes in %d chunks", data.length, chunks.size());
+        Utils.message("%-14s %12s %7s %12s %12s", "codec", "stored", "ratio",
+                      "encode MB/s", "decode MB/s");
+        Codec[] codecs = { Codec.NONE, Codec.DEFLATE_FAST, Codec.DEFLATE, Codec.DEFLATE_BEST };
+        for (Codec codec : codecs) {
+            List<byte[]> encoded = new ArrayList<byte[]>();
+            long encodeNanos = 0;
+            long decodeNanos = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round += 1) {
+                encoded.clear();
+                long start = System.nanoTime();
+                for (byte[] chunk : chunks) {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream(chunk.length);
+                    try (OutputStream out = codec.encode(buffer)) {
+                        out.write(chunk);
+                    }
+                    encoded.add(buffer.toByteArray());
+                }
+                long middle = System.nanoTime();
+                for (byte[] object : encoded) {
+                    try (InputStream in = codec.decode(new ByteArrayInputStream(object))) {
+                        in.readAllBytes();
+                    }
+                }
+                long end = System.nanoTime();
+                if (round >= WARMUP_ROUNDS) {
+                    encodeNanos += middle - start;
+                    decodeNanos += end - middle;
+                }
+            }
+            long stored = 0;
+            for (byte[] object : encoded) {
+                stored += ObjectStore.HEADER_LENGTH + object.length;
+            }
+            Utils.message("%-14s %12d %7.2f %12.1f %12.1f", codec.name(), stored,
+                          (double) data.length / stored,
+                          megabytesPerSecond(data.length * (long) ROUNDS, encodeNanos),
+                          megabytesPerSecond(data.length * (long) ROUNDS, decodeNanos));
+        }
+    }
+
+    /** Compare the size and the encoding and decoding rates of a commit of
+     *  FILES files stored as a serialized Java object, as gitlet once did,
+     *  and in the current encoding, as a commit and its tree. */
+    static void commits(int files) throws IOException {
+        Random random = new Random(61);
+        HashMap<String, String> blobMap = new HashMap<String, String>();
+        for (int i = 0; i < files; i += 1) {
+            byte[] hash = new byte[Pack.HASH_LENGTH];
+            random.nextBytes(hash);
+            blobMap.put("file" + i + ".java", Utils.bytesToUID(hash, 0));
+        }
+        Commit commit = new Commit("A commit of " + files + " files",
+                                   Utils.sha1("parent"), null,
+                                   System.currentTimeMillis(), 0, blobMap);
+        Migration.LegacyCommit legacy = new Migration.LegacyCommit();
+        legacy.logMessage = commit.logMessage;
+        legacy.timeStamp = commit.getTimestamp();
+        legacy.UID = Utils.sha1("commit");
+        legacy.parentCommit1 = commit.parentCommit1;
+        legacy.blobMap = blobMap;
+        int count = Math.max(1, 1000000 / (files + 1));
+        Utils.message("commit of %d files, %d operations per round", files, count);
+        Utils.message("%-14s %12s %14s %14s", "format", "bytes", "encode ops/s", "decode ops/s");
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        byte[] serialized = null;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round += 1) {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i += 1) {
+                serialized = Utils.serialize(legacy);
+            }
+            long middle = System.nanoTime();
+            for (int i = 0; i < count; i += 1) {
+                Migration.readLegacy(serialized, Migration.LegacyCommit.class.getName(),
+                                     Migration.LegacyCommit.class);
+            }
+            long end = System.nanoTime();
+            if (round >= WARMUP_ROUNDS) {
+                encodeNanos += middle - start;
+                decodeNanos += end - middle;
+            }
+        }
+        Utils.message("%-14s %12d %14.0f %14.0f", "serialized", serialized.length,
+                      perSecond(count * (long) ROUNDS, encodeNanos),
+                      perSecond(count * (long) ROUNDS, decodeNanos));
+        encodeNanos = 0;
+        decodeNanos = 0;
+        byte[] tree = null;
+        byte[] encoded = null;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round += 1) {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i += 1) {
+                tree = Tree.updated(null, blobMap).encode();
+                commit.treeUID = Utils.sha1(tree);
+                encoded = commit.encode();
+            }
+            long middle = System.nanoTime();
+            for (int i = 0; i < count; i += 1) {
+                Commit.decode(legacy.UID, encoded);
+                Tree.decode(tree);
+            }
+            long end = System.nanoTime();
+            if (round >= WARMUP_ROUNDS) {
+                encodeNanos += middle - start;
+                decodeNanos += end - middle;
+            }
+        }
+        Utils.message("%-14s %12d %14.0f %14.0f", "encoded", encoded.length + tree.length,
+                      perSecond(count * (long) ROUNDS, encodeNanos),
+                      perSecond(count * (long) ROUNDS, decodeNanos));
+    }
+
+    /** Compare MergeBase with collecting every ancestor of one commit and
+     *  searching the ancestors of the other for the newest of them, on two
+     *  synthetic histories of COMMITS commits.  In each, two branches
+     *  diverge after the first tenth of the history, and one merges the
+     *  other every hundred commits until the last tenth.  In the second,
+     *  the other also merges back every thousand commits. */
+    static void mergeBase(int commits) throws IOException {
+        Utils.message("%d commits", commits);
+        Utils.message("%-10s %-14s %12s %12s", "history", "method", "base", "ms/query");
+        for (boolean both : new boolean[] { false, true }) {
+            File file = File.createTempFile("gitlet", ".graph");
+            file.deleteOnExit();
+            file.delete();
+            CommitGraph graph = new CommitGraph(file);
+            int trunk = commits / 10;
+            int tip = CommitGraph.NONE;
+            for (int i = 0; i < trunk; i += 1) {
+                tip = graph.add(Utils.sha1("trunk" + i), tip, CommitGraph.NONE, i);
+            }
+            int a = tip;
+            int b = tip;
+            int lastMerge = commits - commits / 10;
+            for (int i = trunk; i < commits; i += 2) {
+                boolean merge = i < lastMerge;
+                a = graph.add(Utils.sha1("a" + i), a,
+                              both && merge && i % 1000 == 0 ? b : CommitGraph.NONE, i);
+                b = graph.add(Utils.sha1("b" + i), b,
+                              merge && i % 100 == 0 ? a : CommitGraph.NONE, i + 1);
+            }
+            String history = both ? "two-way" : "one-way";
+            long[] nanos = new long[2];
+            int[] bases = new int[2];
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round += 1) {
+                long start = System.nanoTime();
+                bases[0] = new MergeBase(graph).best(a, b);
+                long middle = System.nanoTime();
+                bases[1] = newestCommonAncestor(graph, a, b);
+                long end = System.nanoTime();
+                if (round >= WARMUP_ROUNDS) {
+                    nanos[0] += middle - start;
+                    nanos[1] += end - middle;
+                }
+            }
+            Utils.message("%-10s %-14s %12s %12.2f", history, "merge-base",
+                          graph.uid(bases[0]).substring(0, 8), nanos[0] / 1e6 / ROUNDS);
+            Utils.message("%-10s %-14s %12s %12.2f", history, "ancestor set",
+                          graph.uid(bases[1]).substring(0, 8), nanos[1] / 1e6 / ROUNDS);
+        }
+    }
+
+    /** Compare hashing every file of a working tree of FILES small files,
+     *  as status did, with looking them up in a StatCache, when the cache
+     *  is empty and when it is up to date, on 1, 4 and 16 threads. */
+    static void status(int files) throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        File index = new File(dir, ".index");
+        byte[] text = sampleText(1 << 20);
+        Random random = new Random(13);
+        HashMap<String, File> working = new HashMap<String, File>();
+        for (int i = 0; i < files; i += 1) {
+            File file = new File(dir, "f" + i);
+            int start = random.nextInt(text.length - 4096);
+            Files.write(file.toPath(), Arrays.copyOfRange(text, start, start + 4096));
+            working.put(file.getName(), file);
+        }
+        Utils.message("%d files", files);
+        Utils.message("%-14s %8s %12s", "method", "threads", "ms");
+        long start = System.nanoTime();
+        for (File file : working.values()) {
+            Utils.sha1Contents(file);
+        }
+        Utils.message("%-14s %8d %12.1f", "hash all", 1, (System.nanoTime() - start) / 1e6);
+        for (int threads : new int[] { 1, 4, 16 }) {
+            index.delete();
+            start = System.nanoTime();
+            StatCache cache = new StatCache(index);
+            cache.uids(working, threads);
+            cache.save();
+            Utils.message("%-14s %8d %12.1f", "cache, cold", threads,
+                          (System.nanoTime() - start) / 1e6);
+            for (int round = 0; round < WARMUP_ROUNDS + 1; round += 1) {
+                start = System.nanoTime();
+                cache = new StatCache(index);
+                cache.uids(working, threads);
+                cache.save();
+            }
+            Utils.message("%-14s %8d %12.1f", "cache, warm", threads,
+                          (System.nanoTime() - start) / 1e6);
+        }
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /** Commands that set up the repository used by startup and train. */
+    private static final String[][] SETUP = {
+        { "init" }, { "add", "f.txt", "g.txt" }, { "commit", "first" },
+        { "branch", "other" }, { "add", "h.txt" }, { "commit", "second" },
+    };
+
+    /** One of each command of Main, in an order that leaves the repository
+     *  as it found it, so that they can be repeated.  "HEAD" stands for the
+     *  UID of the head commit. */
+    private static final String[][] COMMANDS = {
+        { "init" }, { "status" }, { "log" }, { "global-log" }, { "find", "second" },
+        { "add", "f.txt" }, { "commit", "nothing staged" }, { "rm", "g.txt" },
+        { "checkout", "--", "g.txt" }, { "add", "g.txt" }, { "branch", "b" },
+        { "checkout", "b" }, { "checkout", "master" }, { "rm-branch", "b" },
+        { "reset", "HEAD" }, { "merge", "other" }, { "merge-base", "master", "other" },
+        { "count-commits", "master" }, { "gc" },
+    };
+
+    /** Compare the time each command of Main takes in a new JVM, as run
+     *  from the shell: the first time (cold), and on average over the next
+     *  ROUNDS times (warm).  If ARCHIVE is not null, also the warm time
+     *  with the class-data-sharing archive ARCHIVE, which must have been
+     *  made for the class path of this JVM. */
+    static void startup(String archive) throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        writeStartupFiles(dir);
+        for (String[] command : SETUP) {
+            gitlet(dir, null, command);
+        }
+        String head = gitlet(dir, null, "log").split("\\s+")[2];
+        List<String> cds = archive == null ? null
+            : Arrays.asList("-XX:SharedArchiveFile=" + new File(archive).getAbsolutePath(),
+                            "-Xshare:auto");
+        Utils.message("%-14s %10s %10s %10s", "command", "cold ms", "warm ms",
+                      archive == null ? "" : "CDS ms");
+        for (String[] command : COMMANDS) {
+            String[] args = command.clone();
+            for (int i = 0; i < args.length; i += 1) {
+                args[i] = args[i].equals("HEAD") ? head : args[i];
+            }
+            long start = System.nanoTime();
+            gitlet(dir, null, args);
+            long cold = System.nanoTime() - start;
+            long warm = 0;
+            long shared = 0;
+            for (int round = 0; round < ROUNDS; round += 1) {
+                start = System.nanoTime();
+                gitlet(dir, null, args);
+                long middle = System.nanoTime();
+                if (cds != null) {
+                    gitlet(dir, cds, args);
+                }
+                long end = System.nanoTime();
+                warm += middle - start;
+                shared += end - middle;
+            }
+            Utils.message("%-14s %10.1f %10.1f %10s", command[0], cold / 1e6,
+                          warm / 1e6 / ROUNDS,
+                          cds == null ? "" : String.format("%.1f", shared / 1e6 / ROUNDS));
+        }
+        deleteTree(dir);
+    }
+
+    /** Run the SETUP and COMMANDS of startup once each in the current
+     *  directory, discarding their output. */
+    static void train() throws IOException {
+        File dir = new File(Main.workingDirectory);
+        writeStartupFiles(dir);
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (String[][] commands : new String[][][] { SETUP, COMMANDS }) {
+                for (String[] command : commands) {
+                    if (!command[command.length - 1].equals("HEAD")) {
+                        try {
+                            Main.run(command, Repo::new);
+                        } catch (GitletException excp) {
+                            continue;
+                        }
+                    }
+                }
+            }
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    /** Write the working files SETUP adds to DIR. */
+    private static void writeStartupFiles(File dir) {
+        Utils.writeContents(new File(dir, "f.txt"), "f\n");
+        Utils.writeContents(new File(dir, "g.txt"), "g\n");
+        Utils.writeContents(new File(dir, "h.txt"), "h\n");
+    }
+
+    /** Run gitlet with ARGS in a new JVM, with the extra JVM options
+     *  OPTIONS if not null, in the directory DIR.  Returns its output. */
+    private static String gitlet(File dir, List<String> options, String... args)
+        throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (options != null) {
+            command.addAll(options);
+        }
+        command.addAll(Arrays.asList("-Dgitlet.daemon=false", "-cp",
+                                     System.getProperty("java.class.path"), "gitlet.Main"));
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).directory(dir)
+            .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes());
+        try {
+            process.waitFor();
+        } catch (InterruptedException excp) {
+            throw new IOException("interrupted");
+        }
+        return output;
+    }
+
+    /** Returns the common ancestor of commits A and B of GRAPH with the
+     *  highest generation, found by collecting every ancestor of A. */
+    private static int newestCommonAncestor(CommitGraph graph, int a, int b) {
+        HashSet<Integer> ancestors = new HashSet<Integer>();
+        ArrayDeque<Integer> pending = new ArrayDeque<Integer>();
+        pending.push(a);
+        while (!pending.isEmpty()) {
+            int c = pending.pop();
+            if (c != CommitGraph.NONE && ancestors.add(c)) {
+                pending.push(graph.parent1(c));
+                pending.push(graph.parent2(c));
+            }
+        }
+        int base = CommitGraph.NONE;
+        HashSet<Integer> seen = new HashSet<Integer>();
+        pending.push(b);
+        while (!pending.isEmpty()) {
+            int c = pending.pop();
+            if (c == CommitGraph.NONE || !seen.add(c)) {
+                continue;
+            }
+            if (ancestors.contains(c)) {
+                if (base == CommitGraph.NONE || graph.generation(c) > graph.generation(base)) {
+                    base = c;
+                }
+                continue;
+            }
+            pending.push(graph.parent1(c));
+            pending.push(graph.parent2(c));
+        }
+        return base;
+    }
+
+    /** Delete DIR and everything under it. */
+    private static void deleteTree(File dir) throws IOException {
+        try (Stream<Path> walk = Files.walk(dir.toPath())) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /** Returns LENGTH bytes of source-like text, the same on every run. */
+    static byte[] sampleText(int length) {
+        String[] words = { "public", "static", "void", "return", "String", "if",
+                           "else", "for", "int", "new", "File", "commit", "blob",
+                           "branch", "=", "==", "{", "}", "(", ")", ";", "this",
+                           "message", "UID", "null", "while", "Utils.join" };
+        Random random = new Random(61);
+        StringBuilder text = new StringBuilder(length + 64);
+        while (text.length() < length) {
+            int indent = random.nextInt(4);
+            for (int i = 0; i < indent; i += 1) {
+                text.append("    ");
+            }
+            int count = 1 + random.nextInt(10);
+            for (int i = 0; i < count; i += 1) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            text.append('\n');
+        }
+        return text.substring(0, length).getBytes();
+    }
+
+    private static double perSecond(long operations, long nanos) {
+        return nanos == 0 ? 0 : operations / (nanos / 1e9);
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes / (nanos / 1e9) / (1 << 20);
+    }
+
+}
@@ -0,0 +1,302 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** An immutable, compressed set of non-negative ints, in the manner of a
+ *  Roaring bitmap.  The ints are split by their upper 16 bits into chunks
+ *  of 65536, and each non-empty chunk is kept in whichever container is
+ *  smallest for its contents:
+ *
+ *      ARRAY       the sorted lower 16 bits of each member, for sparse
+ *                  chunks
+ *      BITSET      a bit for each of the 65536 values, for dense chunks
+ *      RUN         the start and length of each run of consecutive
+ *                  members, for chunks made of long runs
+ *
+ *  The ancestors of a commit mostly occupy long runs of commit indices, so
+ *  their bitmaps are mostly RUN containers of a few bytes each. */
+class Bitmap {
+
+    static final byte ARRAY = 0;
+    static final byte BITSET = 1;
+    static final byte RUN = 2;
+
+    /** Number of values in a chunk. */
+    private static final int CHUNK = 1 << 16;
+
+    /** Number of longs in a BITSET container. */
+    private static final int WORDS = CHUNK / 64;
+
+    /** The chunk numbers of the containers, in increasing order. */
+    private final char[] keys;
+
+    /** The types of the containers. */
+    private final byte[] types;
+
+    /** The contents of the containers: a char[] for ARRAY and RUN (runs as
+     *  start and length - 1 pairs), and a long[] for BITSET. */
+    private final Object[] containers;
+
+    /** The number of members of each container. */
+    private final int[] cardinalities;
+
+    private Bitmap(char[] keys, byte[] types, Object[] containers, int[] cardinalities) {
+        this.keys = keys;
+        this.types = types;
+        this.containers = containers;
+        this.cardinalities = cardinalities;
+    }
+
+    /** Returns the bitmap holding the members of BITS. */
+    static Bitmap of(BitSet bits) {
+        int chunks = bits.isEmpty() ? 0 : (bits.length() - 1) / CHUNK + 1;
+        char[] keys = new char[chunks];
+        byte[] types = new byte[chunks];
+        Object[] containers = new Object[chunks];
+        int[] cardinalities = new int[chunks];
+        int n = 0;
+        for (int chunk = 0; chunk < chunks; chunk += 1) {
+            long[] words = Arrays.copyOf(
+                bits.get(chunk * CHUNK, (chunk + 1) * CHUNK).toLongArray(), WORDS);
+            int cardinality = 0;
+            for (long word : words) {
+                cardinality += Long.bitCount(word);
+            }
+            if (cardinality == 0) {
+                continue;
+            }
+            keys[n] = (char) chunk;
+            cardinalities[n] = cardinality;
+            pack(words, cardinality, types, containers, n);
+            n += 1;
+        }
+        return new Bitmap(Arrays.copyOf(keys, n), Arrays.copyOf(types, n),
+                          Arrays.copyOf(containers, n), Arrays.copyOf(cardinalities, n));
+    }
+
+    /** Returns the members of this bitmap as a BitSet. */
+    BitSet toBitSet() {
+        if (keys.length == 0) {
+            return new BitSet();
+        }
+        long[] result = new long[(keys[keys.length - 1] + 1) * WORDS];
+        for (int i = 0; i < keys.length; i += 1) {
+            System.arraycopy(words(i), 0, result, keys[i] * WORDS, WORDS);
+        }
+        return BitSet.valueOf(result);
+    }
+
+    /** Returns the number of members. */
+    long cardinality() {
+        long result = 0;
+        for (int cardinality : cardinalities) {
+            result += cardinality;
+        }
+        return result;
+    }
+
+    /** Returns true iff VALUE is a member. */
+    boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int i = Arrays.binarySearch(keys, (char) (value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        char low = (char) value;
+        switch (types[i]) {
+            case ARRAY:
+                return Arrays.binarySearch((char[]) containers[i], low) >= 0;
+            case BITSET:
+                return (((long[]) containers[i])[low >>> 6] & (1L << low)) != 0;
+            default:
+                char[] runs = (char[]) containers[i];
+                int lo = 0;
+                int hi = runs.length / 2 - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (runs[2 * mid] > low) {
+                        hi = mid - 1;
+                    } else if (runs[2 * mid] + runs[2 * mid + 1] < low) {
+                        lo = mid + 1;
+                    } else {
+                        return true;
+                    }
+                }
+                return false;
+        }
+    }
+
+    /** Returns the union of this bitmap and OTHER.  Chunks present in only
+     *  one of them are shared, not copied. */
+    Bitmap or(Bitmap other) {
+        int size = keys.length + other.keys.length;
+        char[] newKeys = new char[size];
+        byte[] newTypes = new byte[size];
+        Object[] newContainers = new Object[size];
+        int[] newCardinalities = new int[size];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                copy(this, i++, newKeys, newTypes, newContainers, newCardinalities, n);
+            } else if (i == keys.length || other.keys[j] < keys[i]) {
+                copy(other, j++, newKeys, newTypes, newContainers, newCardinalities, n);
+            } else {
+                long[] words = words(i).clone();
+                long[] otherWords = other.words(j);
+                int cardinality = 0;
+                for (int w = 0; w < WORDS; w += 1) {
+                    words[w] |= otherWords[w];
+                    cardinality += Long.bitCount(words[w]);
+                }
+                newKeys[n] = keys[i];
+                newCardinalities[n] = cardinality;
+                pack(words, cardinality, newTypes, newContainers, n);
+                i += 1;
+                j += 1;
+            }
+            n += 1;
+        }
+        return new Bitmap(Arrays.copyOf(newKeys, n), Arrays.copyOf(newTypes, n),
+                          Arrays.copyOf(newContainers, n),
+                          Arrays.copyOf(newCardinalities, n));
+    }
+
+    /** Returns this bitmap with VALUE added. */
+    Bitmap with(int value) {
+        if (contains(value)) {
+            return this;
+        }
+        Bitmap single = new Bitmap(new char[] { (char) (value >>> 16) }, new byte[] { ARRAY },
+                                   new Object[] { new char[] { (char) value } }, new int[] { 1 });
+        return or(single);
+    }
+
+    /** Store container I of FROM as element N of KEYS, TYPES, CONTAINERS and
+     *  CARDINALITIES. */
+    private static void copy(Bitmap from, int i, char[] keys, byte[] types,
+                             Object[] containers, int[] cardinalities, int n) {
+        keys[n] = from.keys[i];
+        types[n] = from.types[i];
+        containers[n] = from.containers[i];
+        cardinalities[n] = from.cardinalities[i];
+    }
+
+    /** Write this bitmap to OUT. */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(keys.length);
+        for (int i = 0; i < keys.length; i += 1) {
+            out.writeChar(keys[i]);
+            out.writeByte(types[i]);
+            out.writeInt(cardinalities[i]);
+            if (types[i] == BITSET) {
+                for (long word : (long[]) containers[i]) {
+                    out.writeLong(word);
+                }
+            } else {
+                char[] values = (char[]) containers[i];
+                out.writeChar(types[i] == RUN ? values.length / 2 : values.length);
+                for (char value : values) {
+                    out.writeChar(value);
+                }
+            }
+        }
+    }
+
+    /** Returns the bitmap written to IN by write. */
+    static Bitmap read(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        char[] keys = new char[n];
+        byte[] types = new byte[n];
+        Object[] containers = new Object[n];
+        int[] cardinalities = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            keys[i] = in.readChar();
+            types[i] = in.readByte();
+            cardinalities[i] = in.readInt();
+            if (types[i] == BITSET) {
+                long[] words = new long[WORDS];
+                for (int w = 0; w < WORDS; w += 1) {
+                    words[w] = in.readLong();
+                }
+                containers[i] = words;
+            } else if (types[i] == ARRAY || types[i] == RUN) {
+                int count = in.readChar();
+                char[] values = new char[types[i] == RUN ? 2 * count : count];
+                for (int v = 0; v < values.length; v += 1) {
+                    values[v] = in.readChar();
+                }
+                containers[i] = values;
+            } else {
+                throw new IOException("unknown bitmap container");
+            }
+        }
+        return new Bitmap(keys, types, containers, cardinalities);
+    }
+
+    /** Returns the contents of container I as a BITSET container. */
+    private long[] words(int i) {
+        switch (types[i]) {
+            case BITSET:
+                return (long[]) containers[i];
+            case ARRAY:
+                long[] words = new long[WORDS];
+                for (char value : (char[]) containers[i]) {
+                    words[value >>> 6] |= 1L << value;
+                }
+                return words;
+            default:
+                BitSet bits = new BitSet(CHUNK);
+                char[] runs = (char[]) containers[i];
+                for (int r = 0; r < runs.length; r += 2) {
+                    bits.set(runs[r], runs[r] + runs[r + 1] + 1);
+                }
+                return Arrays.copyOf(bits.toLongArray(), WORDS);
+        }
+    }
+
+    /** Store the chunk WORDS, which has CARDINALITY members, as element N of
+     *  TYPES and CONTAINERS, in the smallest container that holds it. */
+    private static void pack(long[] words, int cardinality, byte[] types,
+                             Object[] containers, int n) {
+        BitSet bits = BitSet.valueOf(words);
+        int runs = 0;
+        for (int start = bits.nextSetBit(0); start >= 0;
+             start = bits.nextSetBit(bits.nextClearBit(start))) {
+            runs += 1;
+        }
+        int arrayBytes = 2 * cardinality;
+        int runBytes = 4 * runs;
+        int bitsetBytes = 8 * WORDS;
+        if (runBytes <= arrayBytes && runBytes < bitsetBytes) {
+            char[] values = new char[2 * runs];
+            int r = 0;
+            for (int start = bits.nextSetBit(0); start >= 0;
+                 start = bits.nextSetBit(bits.nextClearBit(start))) {
+                values[r++] = (char) start;
+                values[r++] = (char) (bits.nextClearBit(start) - start - 1);
+            }
+            types[n] = RUN;
+            containers[n] = values;
+        } else if (arrayBytes < bitsetBytes) {
+            char[] values = new char[cardinality];
+            int v = 0;
+            for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit + 1)) {
+                values[v++] = (char) bit;
+            }
+            types[n] = ARRAY;
+            containers[n] = values;
+        } else {
+            types[n] = BITSET;
+            containers[n] = words;
+        }
+    }
+
+}
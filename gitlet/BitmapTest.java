@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Bitmap and of the Reachability bitmaps built from them.
+ *  @author
+ */
+public class BitmapTest {
+
+    /** Returns BITMAP after writing it out and reading it back. */
+    private static Bitmap roundTrip(Bitmap bitmap) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bitmap.write(new DataOutputStream(bytes));
+        return Bitmap.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    /** Check that BITS survives conversion to a Bitmap and back, and that
+     *  contains agrees with it. */
+    private static void checkSame(BitSet bits) throws IOException {
+        Bitmap bitmap = roundTrip(Bitmap.of(bits));
+        assertEquals(bits, bitmap.toBitSet());
+        assertEquals(bits.cardinality(), bitmap.cardinality());
+        for (int i = 0; i < bits.length() + 70000; i += 1) {
+            assertEquals(bits.get(i), bitmap.contains(i));
+        }
+    }
+
+    @Test
+    public void eachContainer() throws IOException {
+        BitSet bits = new BitSet();
+        checkSame(bits);
+        bits.set(3);
+        bits.set(65535);
+        bits.set(65536, 300000);
+        Random random = new Random(12);
+        for (int i = 0; i < 40000; i += 1) {
+            bits.set(300000 + random.nextInt(65536));
+        }
+        for (int i = 0; i < 100; i += 1) {
+            bits.set(500000 + random.nextInt(65536));
+        }
+        checkSame(bits);
+    }
+
+    @Test
+    public void unionAndAdd() {
+        BitSet left = new BitSet();
+        left.set(0, 1000);
+        BitSet right = new BitSet();
+        right.set(70000, 70010);
+        Bitmap union = Bitmap.of(left).or(Bitmap.of(right)).with(200000);
+        assertEquals(1011, union.cardinality());
+        assertTrue(union.contains(999));
+        assertTrue(union.contains(70005));
+        assertTrue(union.contains(200000));
+        assertFalse(union.contains(1000));
+        assertFalse(union.contains(-1));
+
+        BitSet overlap = new BitSet();
+        overlap.set(500, 1500);
+        overlap.set(70009);
+        BitSet expected = (BitSet) left.clone();
+        expected.or(right);
+        expected.or(overlap);
+        expected.set(200000);
+        assertEquals(expected, union.or(Bitmap.of(overlap)).toBitSet());
+        assertEquals(expected, Bitmap.of(overlap).or(union).toBitSet());
+    }
+
+    @Test
+    public void headBitmaps() throws IOException {
+        File graphFile = File.createTempFile("gitlet", ".graph");
+        File bitmapFile = File.createTempFile("gitlet", ".bitmaps");
+        graphFile.deleteOnExit();
+        bitmapFile.deleteOnExit();
+        graphFile.delete();
+        bitmapFile.delete();
+        CommitGraph graph = new CommitGraph(graphFile);
+        String[] uids = new String[5];
+        int[][] parents = { { -1, -1 }, { 0, -1 }, { 0, -1 }, { 1, 2 }, { 2, -1 } };
+        for (int i = 0; i < uids.length; i += 1) {
+            byte[] hash = ByteBuffer.allocate(Utils.UID_LENGTH / 2).putInt(i).array();
+            uids[i] = Utils.bytesToUID(hash, 0);
+            graph.add(uids[i], parents[i][0], parents[i][1], i);
+        }
+        new Reachability(graph, bitmapFile).refresh(Arrays.asList(uids[3], uids[4]), bitmapFile);
+        Reachability reachability = new Reachability(graph, bitmapFile);
+        assertEquals(4, reachability.reachable(uids[3]).cardinality());
+        assertEquals(3, reachability.reachable(uids[4]).cardinality());
+        assertTrue(reachability.isAncestor(uids[1], uids[3]));
+        assertFalse(reachability.isAncestor(uids[1], uids[4]));
+        assertFalse(reachability.isAncestor(uids[3], uids[1]));
+    }
+
+}
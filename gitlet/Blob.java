@@ -1,45 +1,138 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 
-public class Blob implements Serializable {
+/** The contents of a file, identified by the SHA-1 hash of those contents.
+ *  A Blob never holds the contents on the heap: it refers to the file they
+ *  live in and streams them from there, so blobs of any size are handled
+ *  in constant memory.
+ *
+ *  A stored blob is a manifest listing the content-defined chunks of the
+ *  file (see Chunker).  Each chunk is stored once in the chunk directory,
+ *  however many blobs contain it, so a small edit to a large file only
+ *  stores the chunks around the edit.  A blob stored by an earlier version
+ *  of gitlet is instead a serialized object holding the whole contents; it
+ *  is read through Migration until `gitlet migrate` rewrites it. */
+public class Blob {
 
     private String UID;
-    private byte[] contents;
+
+    /** The working file this blob was created from, or null if this blob
+     *  was read from the blob store. */
+    private File source;
 
     static String blobDirectory = Utils.join(Main.gitletDirectory, "blobs").getPath();
 
+    static String chunkDirectory = Utils.join(Main.gitletDirectory, "chunks").getPath();
+
+    /** Holds the manifest of each stored blob. */
+    static ObjectStore blobStore = new ObjectStore(blobDirectory);
+
+    /** Holds the chunks of all stored blobs. */
+    static ObjectStore chunkStore = new ObjectStore(chunkDirectory);
+
+    /** Receives the entries of a manifest, in order. */
+    private interface EntryVisitor {
+        void visit(String chunkUID, int length) throws IOException;
+    }
+
     public Blob (File file) {
-        contents = Utils.readContents(file);
-        UID = Utils.sha1(contents);
+        source = file;
+        UID = Utils.sha1Contents(file);
+    }
+
+    /** The blob of FILE, whose contents are already known to have the
+     *  SHA-1 hash UID. */
+    Blob (File file, String UID) {
+        source = file;
+        this.UID = UID;
+    }
+
+    private Blob (String UID) {
+        this.UID = UID;
     }
 
+    /** Replace the working file FILENAME with the contents of this blob,
+     *  only once they have all been read (see Checkout). */
     public void toFile(String fileName) {
-        Utils.writeContents(Utils.join(new File(Main.workingDirectory), fileName), this.contents);
+        Checkout.write(fileName, this::writeTo);
+    }
+
+    /** Append the contents of this blob to OUT. */
+    public void writeTo(FileChannel out) throws IOException {
+        if (source != null) {
+            try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+                Utils.transferContents(in, out);
+            }
+            return;
+        }
+        byte[] legacy = forEachEntry((chunkUID, length) -> chunkStore.copyTo(chunkUID, out));
+        if (legacy != null) {
+            ByteBuffer contents = ByteBuffer.wrap(legacy);
+            while (contents.hasRemaining()) {
+                out.write(contents);
+            }
+        }
     }
 
+    /** Store this blob, splitting its contents into chunks and writing the
+     *  chunks not already present.  Returns the UID of the blob. */
     public String serialize() {
-        Utils.writeObject(Utils.join(blobDirectory, UID + ".data"), this);
+        if (blobStore.contains(UID)) {
+            return UID;
+        }
+        new File(chunkDirectory).mkdir();
+        blobStore.write(UID, this::writeManifest);
         return UID;
     }
 
+    /** Store this blob as serialize does, in place of the blob of the same
+     *  UID written by an earlier version of gitlet as a serialized object
+     *  (see ObjectStore.replace). */
+    void rewrite() {
+        new File(chunkDirectory).mkdir();
+        blobStore.replace(UID, this::writeManifest);
+    }
+
+    /** Write the chunks of this blob that are not already present, and its
+     *  manifest to OUT. */
+    private void writeManifest(OutputStream out) throws IOException {
+        DataOutputStream entries = new DataOutputStream(out);
+        try (InputStream in = new FileInputStream(source)) {
+            Chunker.split(in, (data, length) -> {
+                String chunkUID = Utils.sha1(data, 0, length);
+                chunkStore.write(chunkUID, data, 0, length);
+                entries.write(Utils.uidToBytes(chunkUID));
+                entries.writeInt(length);
+            });
+        }
+        entries.flush();
+    }
+
     public static Blob fromUID(String UID) {
-        File blob = Utils.join(blobDirectory, UID + ".data");
-        if (blob.exists()) {
-            return Utils.readObject(blob, Blob.class);
-        } else {
-            Utils.message("No File with that id exists.");
-            System.exit(0);
+        if (blobStore.contains(UID)) {
+            return new Blob(UID);
         }
-        return null;
+        throw Utils.error("No File with that id exists.");
     }
 
+    /** Delete the manifest of the blob UID.  Its chunks are left in place,
+     *  since other blobs may share them. */
     public static void deleteBlob(String UID) {
-        File blob = Utils.join(blobDirectory, UID + ".data");
-        if (blob.exists()) {
-            blob.delete();
-        }
+        blobStore.delete(UID);
     }
 
     public boolean equals(Blob obj) {
@@ -54,8 +147,99 @@ public class Blob implements Serializable {
         return UID;
     }
 
-    public byte[] getContents() {
-        return contents;
+    /** Returns the length of the contents of this blob. */
+    public long getSize() {
+        if (source != null) {
+            return source.length();
+        }
+        long[] size = new long[1];
+        try {
+            byte[] legacy = forEachEntry((chunkUID, length) -> size[0] += length);
+            return legacy != null ? legacy.length : size[0];
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a two-element array holding the total length of the contents
+     *  of all stored blobs, and the number of bytes their chunks actually
+     *  occupy on disk. */
+    static long[] storageStats() {
+        long logical = 0;
+        long stored = 0;
+        for (String uid : blobStore.list()) {
+            logical += new Blob(uid).getSize();
+        }
+        for (String uid : chunkStore.list()) {
+            stored += chunkStore.storedSize(uid);
+        }
+        return new long[] { logical, stored };
+    }
+
+    /** Returns pairs of chunks likely to be similar between two versions of
+     *  a file, the stored blobs OLDER and NEWER: each chunk of OLDER that
+     *  NEWER lacks, together with the chunk of NEWER at the same offset. */
+    static List<String[]> alignChunks(String older, String newer) {
+        List<String> newerChunks = new ArrayList<String>();
+        List<Long> newerEnds = new ArrayList<Long>();
+        List<String> olderChunks = new ArrayList<String>();
+        List<Long> olderStarts = new ArrayList<Long>();
+        long[] offset = new long[1];
+        List<String[]> pairs = new ArrayList<String[]>();
+        try {
+            if (new Blob(newer).forEachEntry((chunkUID, length) -> {
+                    offset[0] += length;
+                    newerChunks.add(chunkUID);
+                    newerEnds.add(offset[0]);
+                }) != null) {
+                return pairs;
+            }
+            offset[0] = 0;
+            if (new Blob(older).forEachEntry((chunkUID, length) -> {
+                    olderChunks.add(chunkUID);
+                    olderStarts.add(offset[0]);
+                    offset[0] += length;
+                }) != null) {
+                return pairs;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        HashSet<String> shared = new HashSet<String>(newerChunks);
+        int j = 0;
+        for (int i = 0; i < olderChunks.size(); i += 1) {
+            while (j < newerChunks.size() && newerEnds.get(j) <= olderStarts.get(i)) {
+                j += 1;
+            }
+            if (j == newerChunks.size()) {
+                break;
+            }
+            if (!shared.contains(olderChunks.get(i))) {
+                pairs.add(new String[] { olderChunks.get(i), newerChunks.get(j) });
+            }
+        }
+        return pairs;
+    }
+
+    /** Pass each entry of the manifest of this stored blob to VISITOR.
+     *  Returns null, or, if the blob was stored by an earlier version of
+     *  gitlet as a serialized object, its contents, having passed nothing
+     *  to VISITOR. */
+    private byte[] forEachEntry(EntryVisitor visitor) throws IOException {
+        byte[] hash = new byte[Utils.UID_LENGTH / 2];
+        try (DataInputStream entries = new DataInputStream(
+                 new BufferedInputStream(blobStore.open(UID)))) {
+            entries.mark(Migration.blobHeadLength());
+            if (Migration.isLegacyBlob(entries.readNBytes(Migration.blobHeadLength()))) {
+                entries.reset();
+                return Migration.readLegacyBlob(entries.readAllBytes());
+            }
+            entries.reset();
+            while (entries.readNBytes(hash, 0, hash.length) == hash.length) {
+                visitor.visit(Utils.bytesToUID(hash, 0), entries.readInt());
+            }
+        }
+        return null;
     }
 
 
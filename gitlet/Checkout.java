@@ -0,0 +1,160 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/** Applies a set of changes to the working files, as produced by
+ *  Tree.diff, in two phases.  First the contents of every file to be
+ *  written are copied out of the blob store into temporary files in
+ *  .gitlet/checkout, on Utils.THREADS threads.  Only once all of them are
+ *  complete are the files to be removed deleted and the temporary files
+ *  renamed into place.  A failure while writing, say because the disk is
+ *  full, thus leaves the working files as they were. */
+class Checkout {
+
+    static String checkoutDirectory = Utils.join(Main.gitletDirectory, "checkout").getPath();
+
+    /** Change the working files as CHANGES says: each path mapped to a blob
+     *  UID gets that blob's contents, and each path mapped to null is
+     *  deleted. */
+    static void apply(Map<String, String> changes) {
+        File dir = new File(checkoutDirectory);
+        clear(dir);
+        dir.mkdirs();
+        List<String> paths = new ArrayList<String>();
+        List<Callable<Void>> writes = new ArrayList<Callable<Void>>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                continue;
+            }
+            File temp = new File(dir, paths.size() + ".tmp");
+            String uid = change.getValue();
+            paths.add(change.getKey());
+            writes.add(() -> {
+                try (FileChannel out = FileChannel.open(temp.toPath(),
+                         StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    Blob.fromUID(uid).writeTo(out);
+                }
+                return null;
+            });
+        }
+        try {
+            run(writes);
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    Repo.deleteWorkingFile(change.getKey());
+                }
+            }
+            for (int i = 0; i < paths.size(); i += 1) {
+                moveInto(new File(dir, i + ".tmp"), paths.get(i));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            clear(dir);
+        }
+    }
+
+    /** Writes the contents of a file to a channel. */
+    interface ContentsWriter {
+        void writeTo(FileChannel out) throws IOException;
+    }
+
+    /** Replace the working file FILENAME with the contents WRITER writes.
+     *  They go to a temporary file in .gitlet/checkout first, which is
+     *  renamed into place only once complete, so that a failure leaves the
+     *  working file as it was. */
+    static void write(String fileName, ContentsWriter writer) {
+        File dir = new File(checkoutDirectory);
+        dir.mkdirs();
+        File temp = Utils.tempFile(new File(dir, "file"));
+        try {
+            try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                writer.writeTo(out);
+            }
+            moveInto(temp, fileName);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /** Rename the complete temporary file TEMP to the working file PATH. */
+    private static void moveInto(File temp, String path) throws IOException {
+        File target = Utils.join(Main.workingDirectory, path);
+        if (target.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        target.getParentFile().mkdirs();
+        Files.move(temp.toPath(), target.toPath(),
+                   StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Run TASKS, on several threads if there are several of them, and
+     *  rethrow the first failure once all have finished. */
+    private static void run(List<Callable<Void>> tasks) throws IOException {
+        if (Utils.THREADS <= 1 || tasks.size() <= 1) {
+            for (Callable<Void> task : tasks) {
+                call(task);
+            }
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(Utils.THREADS);
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                try {
+                    result.get();
+                } catch (ExecutionException excp) {
+                    throw failure(excp.getCause());
+                } catch (InterruptedException excp) {
+                    throw new IOException("interrupted");
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void call(Callable<Void> task) throws IOException {
+        try {
+            task.call();
+        } catch (Exception excp) {
+            throw failure(excp);
+        }
+    }
+
+    /** Returns the failure CAUSE of a task as an IOException, or rethrows it
+     *  if it is unchecked. */
+    private static IOException failure(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException(cause.getMessage());
+    }
+
+    /** Delete the files in DIR, and DIR itself. */
+    private static void clear(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+}
@@ -0,0 +1,100 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Splits a stream of bytes into content-defined chunks using a gear-based
+ *  rolling hash (FastCDC).  Chunk boundaries depend only on the bytes near
+ *  them, so an edit to one part of a file leaves the chunks of the rest of
+ *  the file unchanged, and those chunks can be shared between versions.
+ */
+class Chunker {
+
+    /** Receives the chunks of a stream, in order. */
+    interface ChunkSink {
+        /** Accept the chunk held in the first LENGTH bytes of DATA.  DATA is
+         *  reused after this call returns. */
+        void accept(byte[] data, int length) throws IOException;
+    }
+
+    /** No chunk, other than the last one, is smaller than this. */
+    static final int MIN_SIZE = 2 * 1024;
+
+    /** The size chunks are normalized around. */
+    static final int AVG_SIZE = 8 * 1024;
+
+    /** No chunk is larger than this. */
+    static final int MAX_SIZE = 64 * 1024;
+
+    /** Mask with 15 effective bits, used below AVG_SIZE to make early cuts
+     *  unlikely. */
+    private static final long MASK_S = 0x0003590703530000L;
+
+    /** Mask with 11 effective bits, used above AVG_SIZE to make late cuts
+     *  likely. */
+    private static final long MASK_L = 0x0000d90003530000L;
+
+    /** Random values for each byte, fixed forever so that chunk boundaries
+     *  are the same on every JVM. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = 0x6769746c6574L;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            seed += 0x9e3779b97f4a7c15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /** Split the contents of IN into chunks, passing each to SINK in order.
+     *  At most MAX_SIZE bytes are buffered at any time. */
+    static void split(InputStream in, ChunkSink sink) throws IOException {
+        byte[] buffer = new byte[MAX_SIZE];
+        int length = 0;
+        boolean eof = false;
+        while (true) {
+            while (!eof && length < MAX_SIZE) {
+                int n = in.read(buffer, length, MAX_SIZE - length);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    length += n;
+                }
+            }
+            if (length == 0) {
+                return;
+            }
+            int cut = cutPoint(buffer, length);
+            sink.accept(buffer, cut);
+            System.arraycopy(buffer, cut, buffer, 0, length - cut);
+            length -= cut;
+        }
+    }
+
+    /** Returns the length of the first chunk of the LENGTH bytes in DATA. */
+    static int cutPoint(byte[] data, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int normal = Math.min(AVG_SIZE, length);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_S) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < length; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_L) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+}
@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** A compression scheme for stored objects.  Every stored object records
+ *  the id of the codec that wrote it (see ObjectStore), so codecs may be
+ *  added or the default changed without rewriting existing objects.
+ *  Further codecs (for example LZ4 or Zstandard bindings) are plugged in
+ *  with ObjectStore.register.
+ */
+interface Codec {
+
+    /** The identity codec: objects are stored as they are. */
+    Codec NONE = new Identity();
+
+    /** Deflate at the default level: a good ratio on text. */
+    Codec DEFLATE = new Deflate((byte) 1, "deflate", Deflater.DEFAULT_COMPRESSION);
+
+    /** Deflate at its fastest level, standing in for an LZ4-style codec
+     *  that trades ratio for throughput. */
+    Codec DEFLATE_FAST = new Deflate((byte) 2, "deflate-fast", Deflater.BEST_SPEED);
+
+    /** Deflate at its best level, standing in for a Zstandard-style codec
+     *  that trades throughput for ratio. */
+    Codec DEFLATE_BEST = new Deflate((byte) 3, "deflate-best", Deflater.BEST_COMPRESSION);
+
+    /** The id recorded in the header of objects written with this codec. */
+    byte id();
+
+    /** The name by which this codec is selected. */
+    String name();
+
+    /** Returns a stream that encodes what is written to it onto OUT.
+     *  Closing the result finishes the encoding and closes OUT. */
+    OutputStream encode(OutputStream out) throws IOException;
+
+    /** Returns a stream that decodes the bytes read from IN.  Closing the
+     *  result closes IN. */
+    InputStream decode(InputStream in) throws IOException;
+
+    /** The identity codec. */
+    class Identity implements Codec {
+
+        @Override
+        public byte id() {
+            return 0;
+        }
+
+        @Override
+        public String name() {
+            return "none";
+        }
+
+        @Override
+        public OutputStream encode(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decode(InputStream in) {
+            return in;
+        }
+    }
+
+    /** A codec using java.util.zip at a fixed compression level. */
+    class Deflate implements Codec {
+
+        private final byte id;
+        private final String name;
+        private final int level;
+
+        Deflate(byte id, String name, int level) {
+            this.id = id;
+            this.name = name;
+            this.level = level;
+        }
+
+        @Override
+        public byte id() {
+            return id;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public OutputStream encode(OutputStream out) {
+            Deflater deflater = new Deflater(level);
+            return new DeflaterOutputStream(out, deflater, Utils.BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream decode(InputStream in) {
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater, Utils.BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+    }
+}
@@ -1,30 +1,99 @@
 package gitlet;
 
-import java.io.File;
-import java.io.Serializable;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-public class Commit implements Serializable, Comparable<Commit> {
+/** A commit, stored in a compact, versioned encoding whose SHA-1 hash is the
+ *  UID of the commit:
+ *
+ *      MAGIC                   'g' 'c' and the version of the encoding
+ *      parent count            one byte, 0 to 2
+ *      parents                 20 raw bytes each
+ *      time                    8 bytes, milliseconds since the epoch
+ *      zone offset             4 bytes, seconds east of UTC
+ *      tree                    20 raw bytes of the UID of the root Tree
+ *      message                 varint length and UTF-8 bytes
+ *
+ *  The files of a commit live in its tree, which shares every unchanged
+ *  directory with the tree of its parent.  Version 1 of the encoding held
+ *  the files inline in place of the tree, as a varint count followed by,
+ *  in sorted order of name, the name as a varint length and UTF-8 bytes
+ *  and the 20 raw bytes of the UID of its blob; such commits are still
+ *  read.
+ *
+ *  The encoding depends only on the contents of the commit, so its hash is
+ *  the same on every JVM.  Commits written by earlier versions of gitlet as
+ *  serialized Java objects are still read (see Migration). */
+public class Commit implements Comparable<Commit> {
+
+    /** Starts every encoded commit: 'g', 'c' and the encoding version. */
+    private static final byte[] MAGIC = { 'g', 'c', 2 };
+
+    /** The version of the encoding that held the files inline. */
+    private static final byte INLINE_VERSION = 1;
+
+    /** Format in which dates are shown in logs. */
+    private static final DateTimeFormatter DATE_FORMAT =
+        DateTimeFormatter.ofPattern("E MMM d HH:mm:ss yyyy Z");
 
     public String logMessage;
-    public String timeStamp;
     public String UID;
     public String parentCommit1;
     public String parentCommit2;
     boolean isFirstCommit;
 
-    /** Maps the Name of the file (String) to the UID of the blob of the file (UID) */
+    /** Time of this commit, in milliseconds since the epoch. */
+    long time;
+
+    /** Offset from UTC, in seconds, of the time zone this commit was made in. */
+    int zoneOffset;
+
+    /** UID of the root Tree of this commit, or null if its files are held
+     *  inline in BLOBMAP. */
+    String treeUID;
+
+    /** Maps the Name of the file (String) to the UID of the blob of the file (UID).
+     *  Null until needed, if the files are in the tree. */
     private HashMap<String, String> blobMap;
 
     static String commitDirectory = Utils.join(Main.gitletDirectory, "commits").getPath();
 
+    /** Holds every commit, compressed with the default codec. */
+    static ObjectStore store = new ObjectStore(commitDirectory);
+
+    /** The most commits kept in CACHE, set with the system property
+     *  gitlet.commitCache. */
+    static final int CACHE_LIMIT = Integer.getInteger("gitlet.commitCache", 1 << 14);
+
+    /** Commits read by fromUID, least recently used first, so that walks
+     *  of the commit graph within one command read each commit once.
+     *  Commits are immutable once stored, so cached ones are shared. */
+    private static final LinkedHashMap<String, Commit> CACHE =
+        new LinkedHashMap<String, Commit>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest) {
+                return size() > CACHE_LIMIT;
+            }
+        };
+
+    /** Number of calls of fromUID answered from CACHE. */
+    private static long cacheHits;
+
+    /** Number of calls of fromUID that read the commit store. */
+    private static long cacheMisses;
+
     public Commit(String logMessage) {
         this.logMessage = logMessage;
-        blobMap = new HashMap<String, String>();
     }
 
     public Commit(String logMessage, String parent1UID) {
@@ -38,50 +107,193 @@ public class Commit implements Serializable, Comparable<Commit> {
         this.parentCommit2 = parent2UID;
     }
 
+    /** A commit with the given contents, which has not been stored. */
+    Commit(String logMessage, String parent1UID, String parent2UID,
+           long time, int zoneOffset, Map<String, String> blobMap) {
+        this(logMessage, parent1UID, parent2UID);
+        this.time = time;
+        this.zoneOffset = zoneOffset;
+        this.blobMap = new HashMap<String, String>(blobMap);
+    }
+
     public static Commit fromUID(String UID) {
-        File commit = Utils.join(commitDirectory, (UID + ".data"));
-        if (commit.exists()) {
-            return Utils.readObject(commit, Commit.class);
-        } else {
-            Utils.message("No commit with that id exists.");
-            System.exit(0);
+        synchronized (CACHE) {
+            Commit cached = CACHE.get(UID);
+            if (cached != null) {
+                cacheHits += 1;
+                return cached;
+            }
+            cacheMisses += 1;
         }
-        return null;
+        if (store.contains(UID)) {
+            byte[] contents = store.read(UID);
+            Commit commit;
+            if (Migration.isLegacy(contents)) {
+                commit = Migration.readLegacyCommit(UID, contents);
+            } else {
+                commit = decode(UID, contents);
+            }
+            synchronized (CACHE) {
+                CACHE.put(UID, commit);
+            }
+            return commit;
+        }
+        throw Utils.error("No commit with that id exists.");
     }
 
+    /** Store this commit as the files of its first parent with those in
+     *  ADDMAP added and those in REMOVESET removed.  Only the trees along
+     *  the changed paths are written.  Returns the UID of this commit. */
     public String commit(HashMap<String, String> addMap, HashSet<String> removeSet) {
+        HashMap<String, String> changes = new HashMap<String, String>(addMap);
+        for (String fileName : removeSet) {
+            changes.put(fileName, null);
+        }
+        String parentTree = null;
         if (parentCommit1 != null && !parentCommit1.isEmpty()) {
-            blobMap.putAll(fromUID(parentCommit1).blobMap);
+            parentTree = fromUID(parentCommit1).getTreeUID();
         }
-        blobMap.putAll(addMap);
-        for (String fileName : removeSet) {
-            blobMap.remove(fileName);
+        this.treeUID = Tree.update(parentTree, changes);
+        this.blobMap = null;
+        this.time = isFirstCommit ? 0 : System.currentTimeMillis();
+        this.zoneOffset = ZoneId.systemDefault().getRules()
+            .getOffset(Instant.ofEpochMilli(time)).getTotalSeconds();
+        write();
+        CommitGraph.get().add(this);
+        return UID;
+    }
+
+    /** Returns the number of calls of fromUID answered from the commit
+     *  cache and the number that read the commit store, in that order. */
+    static long[] cacheStats() {
+        synchronized (CACHE) {
+            return new long[] { cacheHits, cacheMisses };
         }
-        this.timeStamp = getCurrentTimestamp(isFirstCommit);
-        this.UID = Utils.sha1(Utils.serialize(this));
-        Utils.writeObject(Utils.join(commitDirectory, (this.UID + ".data")), this);
+    }
+
+    /** Empty the commit cache, after stored commits have been deleted. */
+    static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
 
+    /** Store this commit, setting its UID.  Returns the UID. */
+    String write() {
+        getTreeUID();
+        byte[] contents = encode();
+        this.UID = Utils.sha1(contents);
+        store.write(this.UID, contents, 0, contents.length);
         return this.UID;
     }
 
+    /** Returns the UID of the root tree of this commit, storing the tree
+     *  first if this commit was read with its files inline. */
+    String getTreeUID() {
+        if (treeUID == null) {
+            treeUID = Tree.update(null, blobMap);
+        }
+        return treeUID;
+    }
+
+    /** Returns the canonical encoding of this commit, whose tree must have
+     *  been stored. */
+    byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                96 + 3 * logMessage.length());
+        out.write(MAGIC, 0, MAGIC.length);
+        List<String> parents = getParentUIDs();
+        out.write(parents.size());
+        for (String parent : parents) {
+            out.write(Utils.uidToBytes(parent), 0, Utils.UID_LENGTH / 2);
+        }
+        writeLong(out, time);
+        writeLong(out, zoneOffset & 0xffffffffL, 4);
+        out.write(Utils.uidToBytes(treeUID), 0, Utils.UID_LENGTH / 2);
+        writeString(out, logMessage);
+        return out.toByteArray();
+    }
+
+    /** Returns the commit UID whose encoding is CONTENTS. */
+    static Commit decode(String UID, byte[] contents) {
+        byte version = contents.length < MAGIC.length ? 0 : contents[MAGIC.length - 1];
+        if (contents.length < MAGIC.length || contents[0] != MAGIC[0] || contents[1] != MAGIC[1]
+            || (version != MAGIC[MAGIC.length - 1] && version != INLINE_VERSION)) {
+            throw new IllegalArgumentException("unknown commit encoding");
+        }
+        int[] position = { MAGIC.length };
+        Commit commit = new Commit(null);
+        commit.UID = UID;
+        int parents = contents[position[0]++];
+        if (parents > 0) {
+            commit.parentCommit1 = Utils.bytesToUID(contents, position[0]);
+            position[0] += Utils.UID_LENGTH / 2;
+        }
+        if (parents > 1) {
+            commit.parentCommit2 = Utils.bytesToUID(contents, position[0]);
+            position[0] += Utils.UID_LENGTH / 2;
+        }
+        commit.time = readLong(contents, position, 8);
+        commit.zoneOffset = (int) readLong(contents, position, 4);
+        if (version == INLINE_VERSION) {
+            int files = Utils.readVarint(contents, position);
+            commit.blobMap = new HashMap<String, String>(files * 4 / 3 + 1);
+            for (int i = 0; i < files; i += 1) {
+                String name = readString(contents, position);
+                commit.blobMap.put(name, Utils.bytesToUID(contents, position[0]));
+                position[0] += Utils.UID_LENGTH / 2;
+            }
+        } else {
+            commit.treeUID = Utils.bytesToUID(contents, position[0]);
+            position[0] += Utils.UID_LENGTH / 2;
+        }
+        commit.logMessage = readString(contents, position);
+        return commit;
+    }
+
     public boolean fileEqualInCommit(String name, String UID) {
-        return blobMap.containsKey(name) && blobMap.get(name).equals(UID);
+        return UID.equals(getBlobUID(name));
     }
 
     public boolean filePresentInCommit(String name) {
-        return blobMap.containsKey(name);
+        return getBlobUID(name) != null;
+    }
+
+    /** Returns the UID of the blob of the file NAME in this commit, or null
+     *  if there is no such file.  Only the trees along its path are read. */
+    String getBlobUID(String name) {
+        if (blobMap != null) {
+            return blobMap.get(name);
+        }
+        return Tree.lookup(treeUID, name);
     }
 
     public String getParentUID() {
         return parentCommit1;
     }
 
+    /** Returns the UIDs of the parents of this commit, first parent first. */
+    List<String> getParentUIDs() {
+        List<String> parents = new ArrayList<String>(2);
+        if (parentCommit1 != null && !parentCommit1.isEmpty()) {
+            parents.add(parentCommit1);
+        }
+        if (parentCommit2 != null && !parentCommit2.isEmpty()) {
+            parents.add(parentCommit2);
+        }
+        return parents;
+    }
+
+    @SuppressWarnings("unchecked")
     public HashMap<String, String> getBlobMap() {
+        if (blobMap == null) {
+            blobMap = Tree.flatten(treeUID);
+        }
         return (HashMap<String, String>) blobMap.clone();
     }
 
     public void restoreFile(String fileName) {
-        Blob fileBlob = Blob.fromUID(blobMap.get(fileName));
+        Blob fileBlob = Blob.fromUID(getBlobUID(fileName));
         fileBlob.toFile(fileName);
     }
 
@@ -101,34 +313,64 @@ public class Commit implements Serializable, Comparable<Commit> {
         }
      }
 
+    /** Returns the date of this commit as shown in logs. */
+    public String getTimestamp() {
+        return DATE_FORMAT.format(Instant.ofEpochMilli(time)
+                                  .atOffset(ZoneOffset.ofTotalSeconds(zoneOffset)));
+    }
+
     @Override
     public String toString() {
 
         String message = "===";
-        String mergeMessage = "";
         message += "\n" + "commit " + UID;
         if (parentCommit1 != null && !parentCommit1.isEmpty()
             && parentCommit2 != null && !parentCommit2.isEmpty()) {
             message += "\nMerge: " + parentCommit1.substring(0, 7) + " " + parentCommit2.substring(0, 7);
         }
-        message += "\nDate: " + timeStamp;
+        message += "\nDate: " + getTimestamp();
         message += "\n" + logMessage;
 
         return message;
     }
 
-    private static String getCurrentTimestamp(boolean isFirstCommit) {
-        DateFormat df = new SimpleDateFormat("E MMM d HH:mm:ss yyyy Z");
-        Date dateobj = new Date();
-        if (isFirstCommit) {
-            dateobj.setTime(0);
+    @Override
+    public int compareTo(Commit commit) {
+        return Long.compare(this.time, commit.time);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        writeLong(out, value, 8);
+    }
+
+    /** Write the low BYTES bytes of VALUE to OUT, most significant first. */
+    private static void writeLong(ByteArrayOutputStream out, long value, int bytes) {
+        for (int shift = 8 * (bytes - 1); shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
         }
-        return df.format(dateobj);
     }
 
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        Utils.writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
 
-    @Override
-    public int compareTo(Commit commit) {
-        return this.timeStamp.compareTo(commit.timeStamp);
+    /** Returns the BYTES-byte big-endian number at POSITION[0] in DATA,
+     *  sign-extended, and advances POSITION[0] past it. */
+    private static long readLong(byte[] data, int[] position, int bytes) {
+        long value = data[position[0]];
+        for (int i = 1; i < bytes; i += 1) {
+            value = (value << 8) | (data[position[0] + i] & 0xff);
+        }
+        position[0] += bytes;
+        return value;
+    }
+
+    private static String readString(byte[] data, int[] position) {
+        int length = Utils.readVarint(data, position);
+        String value = new String(data, position[0], length, StandardCharsets.UTF_8);
+        position[0] += length;
+        return value;
     }
 }
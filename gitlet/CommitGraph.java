@@ -0,0 +1,348 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Random;
+
+/** The shape of the commit history, kept beside the commits so that walks
+ *  of the history never read a commit.  Each commit has a compact index,
+ *  its position in the file, and a fixed-width record:
+ *
+ *      UID                     20 raw bytes
+ *      first parent            int index, or NONE
+ *      second parent           int index, or NONE
+ *      generation              int, 1 for a commit without parents, and
+ *                              otherwise one more than that of its
+ *                              highest parent
+ *      time                    long, milliseconds since the epoch
+ *
+ *  The file is MAGIC, the number of records, a random stamp chosen when
+ *  the file is created, and the records.  A commit is always added after
+ *  its parents, so every parent index is smaller than the index of its
+ *  child.  The file is memory-mapped, with room to grow, and each record
+ *  is complete before the count covering it is updated.  Indices are only
+ *  meaningful within one graph file, so anything that records them also
+ *  records the stamp, to notice a rebuilt graph.
+ *
+ *  The graph is derived entirely from the commits: it is rebuilt when
+ *  missing, and a commit that is not yet in it is added, with its
+ *  ancestors, when it is first looked up.
+ *
+ *  Several processes may add to the file at once.  Each append holds the
+ *  INDEXES region of RepoLock exclusive, and first catches up with the
+ *  records other processes have appended, so none is written twice or
+ *  overwritten. */
+class CommitGraph {
+
+    static final byte[] MAGIC = { (byte) 0xc7, 'G', 'L', 'G', 1 };
+
+    /** Parent index of a missing parent. */
+    static final int NONE = -1;
+
+    /** Position of the number of records. */
+    private static final int COUNT = 8;
+
+    /** Position of the creation stamp. */
+    private static final int STAMP = 12;
+
+    /** Position of the first record. */
+    private static final int HEADER = 16;
+
+    /** Length of a record. */
+    private static final int RECORD = Utils.UID_LENGTH / 2 + 4 + 4 + 4 + 8;
+
+    /** Offsets of the fields within a record. */
+    private static final int PARENT1 = Utils.UID_LENGTH / 2;
+    private static final int PARENT2 = PARENT1 + 4;
+    private static final int GENERATION = PARENT2 + 4;
+    private static final int TIME = GENERATION + 4;
+
+    /** Number of records the file has room for when created. */
+    private static final int INITIAL_CAPACITY = 256;
+
+    static String graphFile = Utils.join(Main.gitletDirectory, "commit-graph").getPath();
+
+    /** The graph of this repository, once read. */
+    private static CommitGraph graph;
+
+    /** The file holding the graph. */
+    private final File file;
+
+    /** The mapped file, which may extend beyond the last record. */
+    private MappedByteBuffer records;
+
+    /** Number of records. */
+    private int count;
+
+    /** Maps the UID of each commit to its index, once needed. */
+    private HashMap<String, Integer> indices;
+
+    /** Returns the commit graph of this repository, building it from the
+     *  stored commits if there is none.  A file without a complete header
+     *  may be one another process is still creating, so it is only looked
+     *  at again, and replaced if still incomplete, under the INDEXES lock.
+     *  So is one whose last record is not intact, since the mapping is
+     *  never forced, and a crash of the system may keep a count that
+     *  covers records that were lost. */
+    static synchronized CommitGraph get() {
+        if (graph == null && intact(new File(graphFile))) {
+            graph = new CommitGraph(new File(graphFile));
+        } else if (graph == null) {
+            try (RepoLock lock = RepoLock.exclusive(RepoLock.INDEXES)) {
+                File file = new File(graphFile);
+                boolean existed = intact(file);
+                if (!existed) {
+                    file.delete();
+                }
+                graph = new CommitGraph(file);
+                if (!existed) {
+                    for (String uid : Commit.store.list()) {
+                        graph.indexOf(uid);
+                    }
+                }
+            }
+        }
+        return graph;
+    }
+
+    /** Returns true iff FILE exists, starts with a complete header, and
+     *  ends, if it has any records, with a record of a stored commit whose
+     *  parents come before it and whose generation is set. */
+    private static boolean intact(File file) {
+        if (file.length() < HEADER) {
+            return false;
+        }
+        byte[] head = new byte[MAGIC.length];
+        byte[] record = new byte[RECORD];
+        int count;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.readFully(head);
+            if (!Arrays.equals(head, MAGIC)) {
+                return false;
+            }
+            in.seek(COUNT);
+            count = in.readInt();
+            if (count == 0) {
+                return true;
+            }
+            long last = HEADER + (long) (count - 1) * RECORD;
+            if (count < 0 || last + RECORD > file.length()) {
+                return false;
+            }
+            in.seek(last);
+            in.readFully(record);
+        } catch (IOException excp) {
+            return false;
+        }
+        ByteBuffer fields = ByteBuffer.wrap(record);
+        int parent1 = fields.getInt(PARENT1);
+        int parent2 = fields.getInt(PARENT2);
+        return parent1 >= NONE && parent1 < count - 1
+            && parent2 >= NONE && parent2 < count - 1
+            && fields.getInt(GENERATION) > 0
+            && Commit.store.contains(Utils.bytesToUID(record, 0));
+    }
+
+    /** Delete the commit graph, after stored commits have been rewritten,
+     *  so that it is rebuilt when next needed. */
+    static synchronized void reset() {
+        graph = null;
+        new File(graphFile).delete();
+    }
+
+    /** Drop the graph read from disk, so that it is read again when next
+     *  needed, after another process may have changed it. */
+    static synchronized void forget() {
+        graph = null;
+    }
+
+    /** The graph stored in FILE, which is created if missing. */
+    CommitGraph(File file) {
+        this.file = file;
+        map(INITIAL_CAPACITY);
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (records.get(i) != MAGIC[i]) {
+                throw new IllegalArgumentException("not a commit graph: " + file);
+            }
+        }
+        count = records.getInt(COUNT);
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the stamp chosen when the graph file was created. */
+    int stamp() {
+        return records.getInt(STAMP);
+    }
+
+    /** Returns the UID of commit I. */
+    String uid(int i) {
+        byte[] hash = new byte[Utils.UID_LENGTH / 2];
+        records.duplicate().position(HEADER + i * RECORD).get(hash);
+        return Utils.bytesToUID(hash, 0);
+    }
+
+    /** Returns the index of the first parent of commit I, or NONE. */
+    int parent1(int i) {
+        return records.getInt(HEADER + i * RECORD + PARENT1);
+    }
+
+    /** Returns the index of the second parent of commit I, or NONE. */
+    int parent2(int i) {
+        return records.getInt(HEADER + i * RECORD + PARENT2);
+    }
+
+    /** Returns the generation number of commit I. */
+    int generation(int i) {
+        return records.getInt(HEADER + i * RECORD + GENERATION);
+    }
+
+    /** Returns the time of commit I, in milliseconds since the epoch. */
+    long time(int i) {
+        return records.getLong(HEADER + i * RECORD + TIME);
+    }
+
+    /** Returns the index of the commit UID, or NONE if it is not in the
+     *  graph. */
+    synchronized int find(String uid) {
+        return indices().getOrDefault(uid, NONE);
+    }
+
+    /** Returns INDICES, building it first if needed. */
+    private HashMap<String, Integer> indices() {
+        if (indices == null) {
+            indices = new HashMap<String, Integer>(count * 4 / 3 + 16);
+            for (int i = 0; i < count; i += 1) {
+                indices.put(uid(i), i);
+            }
+        }
+        return indices;
+    }
+
+    /** Returns the index of the stored commit UID, adding it and any of its
+     *  ancestors missing from the graph. */
+    synchronized int indexOf(String uid) {
+        int index = find(uid);
+        if (index != NONE) {
+            return index;
+        }
+        Deque<String> pending = new ArrayDeque<String>();
+        pending.push(uid);
+        while (!pending.isEmpty()) {
+            Commit commit = Commit.fromUID(pending.peek());
+            if (find(commit.UID) != NONE) {
+                pending.pop();
+                continue;
+            }
+            boolean ready = true;
+            for (String parent : commit.getParentUIDs()) {
+                if (find(parent) == NONE) {
+                    pending.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                add(commit);
+                pending.pop();
+            }
+        }
+        return find(uid);
+    }
+
+    /** Append the record of the stored COMMIT, and those of any of its
+     *  ancestors missing from the graph, unless it is there already.
+     *  Returns its index. */
+    synchronized int add(Commit commit) {
+        int index = find(commit.UID);
+        if (index != NONE) {
+            return index;
+        }
+        int parent1 = commit.parentCommit1 == null || commit.parentCommit1.isEmpty()
+            ? NONE : indexOf(commit.parentCommit1);
+        int parent2 = commit.parentCommit2 == null || commit.parentCommit2.isEmpty()
+            ? NONE : indexOf(commit.parentCommit2);
+        return add(commit.UID, parent1, parent2, commit.time);
+    }
+
+    /** Append the record of the commit UID with the parents PARENT1 and
+     *  PARENT2, which may be NONE, made at TIME, unless another process
+     *  has added it already.  Returns its index. */
+    synchronized int add(String uid, int parent1, int parent2, long time) {
+        try (RepoLock lock = RepoLock.exclusive(RepoLock.INDEXES)) {
+            sync();
+            int index = find(uid);
+            return index != NONE ? index : append(uid, parent1, parent2, time);
+        }
+    }
+
+    /** Catch up with the records other processes have appended to the file
+     *  since it was read. */
+    synchronized void sync() {
+        int stored = records.getInt(COUNT);
+        if (stored <= count) {
+            return;
+        }
+        if (HEADER + (long) stored * RECORD > records.capacity()) {
+            map(stored);
+        }
+        if (indices != null) {
+            for (int i = count; i < stored; i += 1) {
+                indices.put(uid(i), i);
+            }
+        }
+        count = stored;
+    }
+
+    /** Append the record of UID, as for add. */
+    private int append(String uid, int parent1, int parent2, long time) {
+        int generation = 1 + Math.max(parent1 == NONE ? 0 : generation(parent1),
+                                      parent2 == NONE ? 0 : generation(parent2));
+        if (HEADER + (long) (count + 1) * RECORD > records.capacity()) {
+            map(2 * (count + 1));
+        }
+        int position = HEADER + count * RECORD;
+        records.duplicate().position(position).put(Utils.uidToBytes(uid));
+        records.putInt(position + PARENT1, parent1);
+        records.putInt(position + PARENT2, parent2);
+        records.putInt(position + GENERATION, generation);
+        records.putLong(position + TIME, time);
+        count += 1;
+        records.putInt(COUNT, count);
+        if (indices != null) {
+            indices.put(uid, count - 1);
+        }
+        return count - 1;
+    }
+
+    /** Map the graph file with room for at least CAPACITY records, creating
+     *  it if needed. */
+    private void map(int capacity) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            boolean created = channel.size() == 0;
+            long size = Math.max(channel.size(), HEADER + (long) capacity * RECORD);
+            records = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (created) {
+                records.putInt(COUNT, 0);
+                records.putInt(STAMP, new Random().nextInt());
+                records.put(0, MAGIC);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** The UIDs of all commits, sorted, so that an abbreviated commit id is
+ *  resolved with a binary search rather than a listing of every commit.
+ *
+ *  The file commit-ids is MAGIC, the stamp of the commit graph, the number
+ *  of commits it holds, a fanout table of 256 ints whose Ith element is the
+ *  number of UIDs starting with a byte no greater than I, and the 20 raw
+ *  bytes of each UID, sorted.  It holds the first commits of the commit
+ *  graph; those added to the graph since, the tail, are searched one by
+ *  one.  Once the tail grows past MAX_TAIL it is sorted and merged into a
+ *  new file, so a lookup costs a binary search and a scan of at most
+ *  MAX_TAIL UIDs.  The file is derived from the commit graph, so it is
+ *  not forced to disk, and rebuilt when missing, made for another graph
+ *  file, or not as long as its count says. */
+class CommitIndex {
+
+    static final byte[] MAGIC = { (byte) 0xc7, 'G', 'L', 'U', 1 };
+
+    static String indexFile = Utils.join(Main.gitletDirectory, "commit-ids").getPath();
+
+    /** Most commits left out of the sorted UIDs before they are merged in. */
+    static final int MAX_TAIL = 1024;
+
+    /** Positions of the fields of the file. */
+    private static final int STAMP = 8;
+    private static final int COUNT = 12;
+    private static final int FANOUT = 16;
+    private static final int ENTRIES = FANOUT + 256 * 4;
+
+    /** Length of a raw UID. */
+    private static final int HASH_LENGTH = Utils.UID_LENGTH / 2;
+
+    private final CommitGraph graph;
+
+    private final File file;
+
+    /** The mapped file. */
+    private MappedByteBuffer ids;
+
+    /** The number of sorted UIDs. */
+    private int count;
+
+    /** The commit index of this repository. */
+    CommitIndex() {
+        this(CommitGraph.get(), new File(indexFile));
+    }
+
+    /** The index of the commits of GRAPH, kept in FILE. */
+    CommitIndex(CommitGraph graph, File file) {
+        this.graph = graph;
+        this.file = file;
+        graph.sync();
+        if (file.exists()) {
+            ids = map(file);
+        }
+        if (ids == null || ids.capacity() < ENTRIES
+            || !ids.slice(0, MAGIC.length).equals(ByteBuffer.wrap(MAGIC))
+            || ids.getInt(STAMP) != graph.stamp() || ids.getInt(COUNT) > graph.size()
+            || ids.capacity() != ENTRIES + (long) ids.getInt(COUNT) * HASH_LENGTH) {
+            count = 0;
+            rebuild();
+        } else {
+            count = ids.getInt(COUNT);
+            if (graph.size() - count > MAX_TAIL) {
+                rebuild();
+            }
+        }
+    }
+
+    /** Returns the UID of the only commit whose UID starts with PREFIX.
+     *  Throws GitletException if there is none or more than one. */
+    String resolve(String prefix) {
+        List<String> found = startingWith(prefix, 2);
+        if (found.isEmpty()) {
+            throw Utils.error("No commit with that id exists.");
+        } else if (found.size() > 1) {
+            throw Utils.error("Ambiguous commit id: more than one commit starts with %s.",
+                              prefix);
+        }
+        return found.get(0);
+    }
+
+    /** Returns true iff UID is the UID of a commit. */
+    boolean contains(String uid) {
+        return Utils.isUID(uid) && !startingWith(uid, 1).isEmpty();
+    }
+
+    /** Returns up to LIMIT of the UIDs of commits that start with PREFIX. */
+    List<String> startingWith(String prefix, int limit) {
+        List<String> result = new ArrayList<String>();
+        prefix = prefix.toLowerCase();
+        if (prefix.length() > Utils.UID_LENGTH || !prefix.matches("[0-9a-f]*")) {
+            return result;
+        }
+        byte[] low = Utils.uidToBytes(prefix + "0".repeat(Utils.UID_LENGTH - prefix.length()));
+        int first = low[0] & 0xff;
+        int lo = prefix.length() < 2 || first == 0 ? 0 : ids.getInt(FANOUT + (first - 1) * 4);
+        int hi = prefix.length() < 2 ? count : ids.getInt(FANOUT + first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(low, mid) > 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count && result.size() < limit; i += 1) {
+            String uid = uid(i);
+            if (!uid.startsWith(prefix)) {
+                break;
+            }
+            result.add(uid);
+        }
+        for (int i = count; i < graph.size() && result.size() < limit; i += 1) {
+            String uid = graph.uid(i);
+            if (uid.startsWith(prefix)) {
+                result.add(uid);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the Ith sorted UID. */
+    private String uid(int i) {
+        byte[] hash = new byte[HASH_LENGTH];
+        ids.get(ENTRIES + i * HASH_LENGTH, hash);
+        return Utils.bytesToUID(hash, 0);
+    }
+
+    /** Returns the comparison of the raw UID KEY with the Ith sorted UID. */
+    private int compare(byte[] key, int i) {
+        int position = ENTRIES + i * HASH_LENGTH;
+        for (int k = 0; k < HASH_LENGTH; k += 1) {
+            int cmp = (key[k] & 0xff) - (ids.get(position + k) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Write a new file holding every commit of the graph: the COUNT
+     *  sorted UIDs of the current file merged with the sorted tail.  Other
+     *  processes may be rebuilding it too; each writes a file of its own
+     *  and renames it into place, so the last rename wins whole. */
+    private void rebuild() {
+        int total = graph.size();
+        byte[][] tail = new byte[total - count][];
+        for (int i = count; i < total; i += 1) {
+            tail[i - count] = Utils.uidToBytes(graph.uid(i));
+        }
+        Arrays.sort(tail, Arrays::compareUnsigned);
+        File temp = Utils.tempFile(file);
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                               ENTRIES + (long) total * HASH_LENGTH);
+            out.put(0, MAGIC);
+            out.putInt(STAMP, graph.stamp());
+            out.putInt(COUNT, total);
+            int[] fanout = new int[256];
+            byte[] hash = new byte[HASH_LENGTH];
+            int a = 0;
+            int b = 0;
+            for (int n = 0; n < total; n += 1) {
+                if (b == tail.length
+                    || (a < count && compare(tail[b], a) > 0)) {
+                    ids.get(ENTRIES + a * HASH_LENGTH, hash);
+                    a += 1;
+                } else {
+                    System.arraycopy(tail[b], 0, hash, 0, HASH_LENGTH);
+                    b += 1;
+                }
+                out.put(ENTRIES + n * HASH_LENGTH, hash);
+                fanout[hash[0] & 0xff] += 1;
+            }
+            for (int i = 0, sum = 0; i < 256; i += 1) {
+                sum += fanout[i];
+                out.putInt(FANOUT + i * 4, sum);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ids = map(file);
+        count = total;
+    }
+
+    /** Returns FILE mapped read-only. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of CommitIndex.
+ *  @author
+ */
+public class CommitIndexTest {
+
+    /** Returns a graph in DIR of N commits without parents, whose UIDs are
+     *  added to UIDS. */
+    private static CommitGraph graph(File dir, int n, List<String> uids) {
+        CommitGraph graph = new CommitGraph(new File(dir, "graph"));
+        for (int i = 0; i < n; i += 1) {
+            uids.add(Utils.sha1("commit " + i));
+            graph.add(uids.get(i), CommitGraph.NONE, CommitGraph.NONE, i);
+        }
+        return graph;
+    }
+
+    @Test
+    public void resolvesEveryPrefixLength() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        List<String> uids = new ArrayList<String>();
+        CommitGraph graph = graph(dir, 3000, uids);
+        File file = new File(dir, "ids");
+        for (int added = 0; added < 2; added += 1) {
+            CommitIndex index = new CommitIndex(graph, file);
+            for (String uid : uids) {
+                assertEquals(uid, index.resolve(uid));
+                assertEquals(uid, index.resolve(uid.substring(0, 12).toUpperCase()));
+                assertTrue(index.contains(uid));
+            }
+            uids.add(Utils.sha1("late commit " + added));
+            graph.add(uids.get(uids.size() - 1), CommitGraph.NONE, CommitGraph.NONE, 0);
+        }
+        CommitIndex index = new CommitIndex(graph, file);
+        assertEquals(uids.get(uids.size() - 1), index.resolve(uids.get(uids.size() - 1)));
+        assertFalse(index.contains(Utils.sha1("no such commit")));
+        assertEquals(2, index.startingWith("a", 2).size());
+        assertTrue(index.startingWith("xyz", 2).isEmpty());
+        try {
+            index.resolve("a");
+            fail("expected an ambiguous id");
+        } catch (GitletException excp) {
+            assertTrue(excp.getMessage().startsWith("Ambiguous"));
+        }
+        try {
+            index.resolve(Utils.sha1("no such commit").substring(0, 10));
+            fail("expected a missing id");
+        } catch (GitletException excp) {
+            assertEquals("No commit with that id exists.", excp.getMessage());
+        }
+    }
+
+    @Test
+    public void mergesALongTail() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        List<String> uids = new ArrayList<String>();
+        CommitGraph graph = graph(dir, 10, uids);
+        File file = new File(dir, "ids");
+        new CommitIndex(graph, file);
+        long small = file.length();
+        for (int i = 0; i <= CommitIndex.MAX_TAIL; i += 1) {
+            uids.add(Utils.sha1("tail " + i));
+            graph.add(uids.get(uids.size() - 1), CommitGraph.NONE, CommitGraph.NONE, i);
+        }
+        CommitIndex index = new CommitIndex(graph, file);
+        assertTrue(file.length() > small);
+        for (String uid : uids) {
+            assertEquals(uid, index.resolve(uid.substring(0, 10)));
+        }
+    }
+
+}
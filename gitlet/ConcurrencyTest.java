@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Stress test of several gitlet processes sharing one repository.
+ *  @author
+ */
+public class ConcurrencyTest {
+
+    /** Number of processes committing at once. */
+    private static final int WRITERS = 4;
+
+    /** Number of commits each tries. */
+    private static final int ROUNDS = 5;
+
+    /** Returns the output of gitlet, run in DIR on ARGS in a new JVM. */
+    static String gitlet(File dir, String... args) throws IOException {
+        List<String> command = new ArrayList<String>(Arrays.asList(
+            new File(System.getProperty("java.home"), "bin/java").getPath(),
+            "-Dgitlet.daemon=false", "-cp", System.getProperty("java.class.path"),
+            "gitlet.Main"));
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).directory(dir)
+            .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(),
+                                   StandardCharsets.UTF_8);
+        try {
+            process.waitFor();
+        } catch (InterruptedException excp) {
+            throw new IOException(excp);
+        }
+        return output.trim();
+    }
+
+    /** Each of WRITERS processes repeatedly changes a file of its own, adds
+     *  it, commits it and makes a branch, while another reads the log and
+     *  the status.  No commit or branch may be lost, and no command may
+     *  fail. */
+    @Test
+    public void concurrentCommittersLoseNothing() throws Exception {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        assertEquals("", gitlet(dir, "init"));
+        ExecutorService pool = Executors.newFixedThreadPool(WRITERS + 1);
+        List<Future<Integer>> writers = new ArrayList<Future<Integer>>();
+        for (int w = 0; w < WRITERS; w += 1) {
+            String name = "w" + w;
+            writers.add(pool.submit(() -> {
+                int committed = 0;
+                for (int r = 0; r < ROUNDS; r += 1) {
+                    Utils.writeContents(new File(dir, name + ".txt"), name + " round " + r);
+                    assertEquals("", gitlet(dir, "add", name + ".txt"));
+                    String output = gitlet(dir, "commit", name + " round " + r);
+                    if (output.isEmpty()) {
+                        committed += 1;
+                    } else {
+                        assertEquals("No changes added to the commit.", output);
+                    }
+                    assertEquals("", gitlet(dir, "branch", name + "-" + r));
+                }
+                return committed;
+            }));
+        }
+        Future<?> reader = pool.submit(() -> {
+            for (int r = 0; r < ROUNDS; r += 1) {
+                assertTrue(gitlet(dir, "log").startsWith("==="));
+                assertTrue(gitlet(dir, "status").startsWith("=== Branches ==="));
+            }
+            return null;
+        });
+        int committed = 0;
+        for (Future<Integer> writer : writers) {
+            committed += writer.get();
+        }
+        reader.get();
+        pool.shutdown();
+
+        assertTrue(committed > 0);
+        String log = gitlet(dir, "log");
+        assertEquals(committed + 1, log.split("\ncommit ", -1).length - 1);
+        String status = gitlet(dir, "status");
+        for (int w = 0; w < WRITERS; w += 1) {
+            for (int r = 0; r < ROUNDS; r += 1) {
+                assertTrue(status.contains("\nw" + w + "-" + r + "\n"));
+            }
+        }
+        assertTrue(status.contains("=== Staged Files ===\n\n"));
+    }
+
+}
@@ -0,0 +1,227 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** A long-running server for the commands of one repository, so that a
+ *  stream of commands pays for starting the JVM, loading classes and
+ *  filling the caches of commits, the commit graph and the packs once.
+ *  `gitlet daemon`, run at the top of the working directory, listens on
+ *  the Unix domain socket .gitlet/daemon.sock until killed.  While it
+ *  runs, Main passes each command to it instead of running it, unless the
+ *  system property gitlet.daemon is false.
+ *
+ *  A request is the arguments of the command, each UTF-8 encoded and
+ *  followed by a zero byte, after which the client shuts down its side of
+ *  the connection.  The response is the output of the command, after
+ *  which the daemon closes the connection.  If the command failed other
+ *  than with a user error, the output is followed by a zero byte, which
+ *  output never holds, and a description of the failure, which Main
+ *  reports as it would a failure of its own.  So any client that can
+ *  write to a Unix socket will do, for example
+ *
+ *      printf 'status\0' | nc -NU .gitlet/daemon.sock
+ *
+ *  Commands run one at a time, each with a new Repo and the locks it would
+ *  take if run by Main (see RepoLock).  The caches are kept between
+ *  commands, but the daemon notes the size and modification time of the
+ *  files and directories of .gitlet after each command, before releasing
+ *  its locks, and drops them all if another process has changed any of
+ *  them by the next. */
+class Daemon {
+
+    static String socketFile = Utils.join(Main.gitletDirectory, "daemon.sock").getPath();
+
+    /** The files and directories of .gitlet whose changes by other
+     *  processes invalidate what the daemon has cached. */
+    private static final String[] WATCHED = {
+        "head.data", "branchMap.data", "staging/addMap.data", "staging/removeSet.data",
+        "journal", "commit-graph", "bitmaps", "index", "commits", "trees", "blobs", "chunks",
+        "commits/objects.idx", "trees/objects.idx", "blobs/objects.idx",
+        "chunks/objects.idx",
+    };
+
+    /** The state of the WATCHED files after the last command. */
+    private static String fingerprint;
+
+    /** Serve commands on the socket until killed.  Throws GitletException
+     *  if this is not a repository or another daemon is serving it. */
+    static void serve() {
+        if (!Main.isInitialised()) {
+            throw Utils.error("Not in an initialized Gitlet directory.");
+        }
+        File socket = new File(socketFile);
+        if (socket.exists()) {
+            try (SocketChannel channel = SocketChannel.open(
+                     UnixDomainSocketAddress.of(socket.toPath()))) {
+                throw Utils.error("A daemon is already running.");
+            } catch (IOException excp) {
+                socket.delete();
+            }
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(socket::delete));
+            Utils.message("Serving %s on %s.", Main.workingDirectory, socketFile);
+            while (true) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException excp) {
+                    System.err.println(excp);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Pass the command ARGS to the daemon of this repository, and copy its
+     *  output to the standard output.  Returns false, having done nothing,
+     *  if no daemon is serving the repository.  Throws
+     *  IllegalArgumentException, with the description the daemon sent, if
+     *  the command failed. */
+    static boolean forward(String... args) {
+        File socket = new File(socketFile);
+        if (!socket.exists()
+            || !Boolean.parseBoolean(System.getProperty("gitlet.daemon", "true"))) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException excp) {
+            return false;
+        }
+        try (channel) {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            for (String arg : args) {
+                request.write(arg.getBytes(StandardCharsets.UTF_8));
+                request.write(0);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(request.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.shutdownOutput();
+            InputStream response = Channels.newInputStream(channel);
+            ByteArrayOutputStream failure = null;
+            byte[] chunk = new byte[Utils.BUFFER_SIZE];
+            for (int n = response.read(chunk); n != -1; n = response.read(chunk)) {
+                int start = 0;
+                if (failure == null) {
+                    while (start < n && chunk[start] != 0) {
+                        start += 1;
+                    }
+                    System.out.write(chunk, 0, start);
+                    System.out.flush();
+                    if (start == n) {
+                        continue;
+                    }
+                    failure = new ByteArrayOutputStream();
+                    start += 1;
+                }
+                failure.write(chunk, start, n - start);
+            }
+            if (failure != null) {
+                throw new IllegalArgumentException(failure.toString(StandardCharsets.UTF_8));
+            }
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Run the command requested by CLIENT, sending it the output as the
+     *  command produces it. */
+    private static void handle(SocketChannel client) throws IOException {
+        InputStream in = Channels.newInputStream(client);
+        List<String> args = new ArrayList<String>();
+        ByteArrayOutputStream arg = new ByteArrayOutputStream();
+        for (int c = in.read(); c != -1; c = in.read()) {
+            if (c == 0) {
+                args.add(arg.toString(StandardCharsets.UTF_8));
+                arg.reset();
+            } else {
+                arg.write(c);
+            }
+        }
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(new BufferedOutputStream(Channels.newOutputStream(client),
+                                                               Utils.BUFFER_SIZE),
+                                      false, StandardCharsets.UTF_8));
+        try {
+            execute(args.toArray(new String[0]));
+        } finally {
+            System.out.flush();
+            System.setOut(stdout);
+        }
+    }
+
+    /** Run the command ARGS, with the cached state if it is still valid. */
+    private static void execute(String[] args) {
+        try {
+            Main.run(args, Daemon::repo, () -> fingerprint = fingerprint());
+        } catch (GitletException excp) {
+            Utils.message("%s", excp.getMessage());
+        } catch (RuntimeException excp) {
+            invalidate();
+            System.out.write(0);
+            System.out.print(excp);
+        }
+    }
+
+    /** Returns the repository, called by Main.run with the locks of the
+     *  command held, having first dropped the caches if another process
+     *  has changed .gitlet since the last command. */
+    private static Repo repo() {
+        if (!fingerprint().equals(fingerprint)) {
+            invalidate();
+        }
+        return new Repo();
+    }
+
+    /** Drop everything read from .gitlet. */
+    private static void invalidate() {
+        Commit.clearCache();
+        CommitGraph.forget();
+        Commit.store.reload();
+        Tree.store.reload();
+        Blob.blobStore.reload();
+        Blob.chunkStore.reload();
+    }
+
+    /** Returns a summary of the size and modification time of each of the
+     *  WATCHED files, which changes whenever one of them does. */
+    private static String fingerprint() {
+        StringBuilder result = new StringBuilder();
+        for (String name : WATCHED) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(
+                    Utils.join(Main.gitletDirectory, name).toPath(), BasicFileAttributes.class);
+                result.append(attributes.size()).append(':')
+                    .append(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+            } catch (IOException excp) {
+                result.append('-');
+            }
+            result.append(' ');
+        }
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,115 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** Delta encoding of one byte array against another.  A delta is a
+ *  sequence of instructions that rebuild the target from the base:
+ *  COPY (an offset and a length in the base) and INSERT (a length and that
+ *  many literal bytes).  Offsets and lengths are unsigned varints.
+ */
+class Delta {
+
+    /** Copy a range of the base. */
+    private static final int COPY = 0;
+
+    /** Insert literal bytes. */
+    private static final int INSERT = 1;
+
+    /** Length of the blocks of the base that are indexed for matching.
+     *  Matches shorter than this are inserted literally. */
+    private static final int BLOCK = 16;
+
+    /** Returns a delta that rebuilds TARGET from BASE. */
+    static byte[] encode(byte[] base, byte[] target) {
+        int[] table = index(base);
+        int mask = table.length - 1;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target.length / 4 + 16);
+        int pending = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            int candidate = table[hash(target, i) & mask] - 1;
+            if (candidate >= 0 && matches(base, candidate, target, i)) {
+                int start = candidate;
+                int length = BLOCK;
+                while (start + length < base.length && i + length < target.length
+                       && base[start + length] == target[i + length]) {
+                    length += 1;
+                }
+                while (start > 0 && i > pending && base[start - 1] == target[i - 1]) {
+                    start -= 1;
+                    i -= 1;
+                    length += 1;
+                }
+                insert(out, target, pending, i);
+                out.write(COPY);
+                Utils.writeVarint(out, start);
+                Utils.writeVarint(out, length);
+                i += length;
+                pending = i;
+            } else {
+                i += 1;
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the target rebuilt by applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(base.length);
+        int[] position = { 0 };
+        while (position[0] < delta.length) {
+            int op = delta[position[0]++];
+            if (op == COPY) {
+                int start = Utils.readVarint(delta, position);
+                int length = Utils.readVarint(delta, position);
+                out.write(base, start, length);
+            } else if (op == INSERT) {
+                int length = Utils.readVarint(delta, position);
+                out.write(delta, position[0], length);
+                position[0] += length;
+            } else {
+                throw new IllegalArgumentException("corrupt delta");
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns an open hash table mapping the hash of each BLOCK-aligned
+     *  block of BASE to one more than its offset. */
+    private static int[] index(byte[] base) {
+        int size = Integer.highestOneBit(Math.max(1, base.length / BLOCK) * 2 - 1) * 2;
+        int[] table = new int[size];
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            int slot = hash(base, i) & (size - 1);
+            if (table[slot] == 0) {
+                table[slot] = i + 1;
+            }
+        }
+        return table;
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int h = 0;
+        for (int i = offset; i < offset + BLOCK; i += 1) {
+            h = h * 31 + data[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(byte[] base, int start, byte[] target, int offset) {
+        return start + BLOCK <= base.length
+            && Arrays.equals(base, start, start + BLOCK, target, offset, offset + BLOCK);
+    }
+
+    /** Write an INSERT of the bytes of TARGET from START to END, if any. */
+    private static void insert(ByteArrayOutputStream out, byte[] target, int start, int end) {
+        if (end > start) {
+            out.write(INSERT);
+            Utils.writeVarint(out, end - start);
+            out.write(target, start, end - start);
+        }
+    }
+
+}
@@ -0,0 +1,316 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/** The write-ahead journal of the current branch, the branch map and the
+ *  staging area.  Rather than rewriting head.data, branchMap.data,
+ *  addMap.data and removeSet.data, a command appends one record holding
+ *  every change it made to them, and forces it to disk: one write and one
+ *  fsync per command, and a crash leaves either all of its changes or none.
+ *  Those four files are checkpoints, and their current state is that of
+ *  the checkpoints with the operations of the journal applied in order.
+ *
+ *  The journal is a sequence of records, each the length of its payload,
+ *  the CRC-32 of the payload, and the payload, a sequence of operations,
+ *  each a kind byte followed by its strings.  Every operation sets a value
+ *  outright, so applying a record twice does no harm.  When the journal is
+ *  read, a record that is incomplete or fails its CRC, left by a crash
+ *  while it was appended, is cut off along with anything after it.
+ *
+ *  Once the journal exceeds COMPACT_SIZE bytes, the Repo writes new
+ *  checkpoints, each to a temporary file that is forced and then renamed
+ *  over the old one, and then empties the journal.
+ *
+ *  Several processes may use the journal at once.  It is read, with a
+ *  checkpoint, under the JOURNAL region of RepoLock held shared, and
+ *  appended to, cut back or emptied with it held exclusive.  An append
+ *  first reads the journal again, and runs a check that may refuse it,
+ *  which is how the Repo makes the move of a branch a compare-and-swap. */
+class Journal {
+
+    static String journalFile = Utils.join(Main.gitletDirectory, "journal").getPath();
+
+    /** Size beyond which the journal is folded into the checkpoints. */
+    static final long COMPACT_SIZE = 1 << 16;
+
+    /** Kinds of operation. */
+    static final byte HEAD = 1;
+    static final byte BRANCH = 2;
+    static final byte DELETE_BRANCH = 3;
+    static final byte STAGE = 4;
+    static final byte UNSTAGE = 5;
+    static final byte CLEAR_STAGED = 6;
+    static final byte REMOVE = 7;
+    static final byte UNREMOVE = 8;
+    static final byte CLEAR_REMOVED = 9;
+
+    /** Length of the header of a record. */
+    private static final int RECORD_HEADER = 4 + 4;
+
+    /** One operation: its KIND and its strings, KEY and VALUE, either of
+     *  which may be null. */
+    static class Op {
+        final byte kind;
+        final String key;
+        final String value;
+
+        Op(byte kind, String key, String value) {
+            this.kind = kind;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final File file;
+
+    /** The operations of all complete records, in order. */
+    private final List<Op> ops = new ArrayList<Op>();
+
+    /** The length of the complete records. */
+    private long length;
+
+    /** The journal of this repository. */
+    Journal() {
+        this(new File(journalFile));
+    }
+
+    /** The journal kept in FILE, read and, if it ends in a torn record,
+     *  cut back to its last complete record. */
+    Journal(File file) {
+        this.file = file;
+        consistent(() -> null);
+    }
+
+    /** Returns the object of class TYPE in the checkpoint CHECKPOINT, read
+     *  together with the journal, so that the operations now in the journal
+     *  are exactly those made since the checkpoint was written. */
+    <T extends Serializable> T load(File checkpoint, Class<T> type) {
+        return consistent(() -> Utils.readObject(checkpoint, type));
+    }
+
+    /** Returns the result of ACTION, run once the journal is read again,
+     *  holding a shared lock on the journal throughout, or an exclusive one
+     *  if the journal has a torn record to cut off. */
+    private <T> T consistent(Supplier<T> action) {
+        try (RepoLock lock = RepoLock.shared(RepoLock.JOURNAL)) {
+            if (read(false)) {
+                return action.get();
+            }
+        }
+        try (RepoLock lock = RepoLock.exclusive(RepoLock.JOURNAL)) {
+            read(true);
+            return action.get();
+        }
+    }
+
+    /** Read the complete records of the journal, the caller holding a lock
+     *  on it.  Returns false if it ends in a torn record, which is cut off
+     *  if REPAIR, when the caller must hold the lock exclusive. */
+    private boolean read(boolean repair) {
+        ops.clear();
+        length = 0;
+        if (!file.exists()) {
+            return true;
+        }
+        byte[] contents = Utils.readContents(file);
+        ByteBuffer in = ByteBuffer.wrap(contents);
+        while (in.remaining() >= RECORD_HEADER) {
+            int size = in.getInt();
+            int crc = in.getInt();
+            if (size < 0 || size > in.remaining()) {
+                break;
+            }
+            byte[] payload = new byte[size];
+            in.get(payload);
+            if (crc(payload) != crc) {
+                break;
+            }
+            ops.addAll(decode(payload));
+            length = in.position();
+        }
+        if (length == contents.length) {
+            return true;
+        } else if (!repair) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+            channel.force(false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return true;
+    }
+
+    /** Returns the size of the journal, in bytes. */
+    long size() {
+        return length;
+    }
+
+    /** Returns HEAD as changed by the journal. */
+    String head(String head) {
+        for (Op op : ops) {
+            if (op.kind == HEAD) {
+                head = op.key;
+            }
+        }
+        return head;
+    }
+
+    /** Apply the changes the journal makes to the branch map to BRANCHES. */
+    void applyToBranches(Map<String, String> branches) {
+        for (Op op : ops) {
+            if (op.kind == BRANCH) {
+                branches.put(op.key, op.value);
+            } else if (op.kind == DELETE_BRANCH) {
+                branches.remove(op.key);
+            }
+        }
+    }
+
+    /** Apply the changes the journal makes to the files staged for addition
+     *  to STAGED. */
+    void applyToStaged(Map<String, String> staged) {
+        for (Op op : ops) {
+            if (op.kind == STAGE) {
+                staged.put(op.key, op.value);
+            } else if (op.kind == UNSTAGE) {
+                staged.remove(op.key);
+            } else if (op.kind == CLEAR_STAGED) {
+                staged.clear();
+            }
+        }
+    }
+
+    /** Apply the changes the journal makes to the files staged for removal
+     *  to REMOVED. */
+    void applyToRemoved(Set<String> removed) {
+        for (Op op : ops) {
+            if (op.kind == REMOVE) {
+                removed.add(op.key);
+            } else if (op.kind == UNREMOVE) {
+                removed.remove(op.key);
+            } else if (op.kind == CLEAR_REMOVED) {
+                removed.clear();
+            }
+        }
+    }
+
+    /** Append a record of the operations CHANGES, if there are any, and
+     *  force it to disk. */
+    void append(List<Op> changes) {
+        append(changes, null);
+    }
+
+    /** Append a record of the operations CHANGES, if there are any, and
+     *  force it to disk, unless CHECK, if not null, throws.  CHECK runs
+     *  with the journal locked exclusive and read again, so what it sees
+     *  cannot change before the record is written. */
+    void append(List<Op> changes, Runnable check) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        byte[] payload = encode(changes);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + payload.length);
+        record.putInt(payload.length).putInt(crc(payload)).put(payload).flip();
+        try (RepoLock lock = RepoLock.exclusive(RepoLock.JOURNAL);
+             FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE)) {
+            read(true);
+            if (check != null) {
+                check.run();
+            }
+            long position = length;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            channel.force(false);
+            length = position;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ops.addAll(changes);
+    }
+
+    /** Empty the journal, once its operations are all in the checkpoints. */
+    void clear() {
+        try (RepoLock lock = RepoLock.exclusive(RepoLock.JOURNAL);
+             FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE)) {
+            channel.truncate(0);
+            channel.force(false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ops.clear();
+        length = 0;
+    }
+
+    /** Write OBJ to FILE as a checkpoint: to a temporary file, forced to
+     *  disk, which then replaces FILE. */
+    static void checkpoint(File file, Serializable obj) {
+        File temp = new File(file.getPath() + ".tmp");
+        Utils.writeObject(temp, obj);
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode(List<Op> changes) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Op op : changes) {
+                out.writeByte(op.kind);
+                out.writeUTF(op.key == null ? "" : op.key);
+                out.writeUTF(op.value == null ? "" : op.value);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Op> decode(byte[] payload) {
+        List<Op> result = new ArrayList<Op>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            while (in.available() > 0) {
+                result.add(new Op(in.readByte(), in.readUTF(), in.readUTF()));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Journal.
+ *  @author
+ */
+public class JournalTest {
+
+    @Test
+    public void replaysCompleteRecordsInOrder() throws IOException {
+        File file = new File(Files.createTempDirectory("gitlet").toFile(), "journal");
+        Journal journal = new Journal(file);
+        journal.append(Arrays.asList(new Journal.Op(Journal.STAGE, "a", "1"),
+                                     new Journal.Op(Journal.STAGE, "b", "2"),
+                                     new Journal.Op(Journal.BRANCH, "master", "c1")));
+        journal.append(Arrays.asList(new Journal.Op(Journal.UNSTAGE, "a", null),
+                                     new Journal.Op(Journal.REMOVE, "c", null),
+                                     new Journal.Op(Journal.HEAD, "other", null)));
+        journal = new Journal(file);
+        HashMap<String, String> staged = new HashMap<String, String>();
+        staged.put("z", "0");
+        journal.applyToStaged(staged);
+        assertEquals(2, staged.size());
+        assertEquals("2", staged.get("b"));
+        HashSet<String> removed = new HashSet<String>();
+        journal.applyToRemoved(removed);
+        assertEquals(new HashSet<String>(Arrays.asList("c")), removed);
+        assertEquals("other", journal.head("master"));
+        HashMap<String, String> branches = new HashMap<String, String>();
+        journal.applyToBranches(branches);
+        assertEquals("c1", branches.get("master"));
+
+        journal.append(Arrays.asList(new Journal.Op(Journal.CLEAR_STAGED, null, null)));
+        journal = new Journal(file);
+        journal.applyToStaged(staged);
+        assertTrue(staged.isEmpty());
+    }
+
+    @Test
+    public void cutsOffATornRecord() throws IOException {
+        File file = new File(Files.createTempDirectory("gitlet").toFile(), "journal");
+        Journal journal = new Journal(file);
+        journal.append(Arrays.asList(new Journal.Op(Journal.HEAD, "one", null)));
+        long complete = file.length();
+        journal.append(Arrays.asList(new Journal.Op(Journal.HEAD, "two", null)));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 2);
+        }
+        journal = new Journal(file);
+        assertEquals("one", journal.head(null));
+        assertEquals(complete, file.length());
+        journal.append(Arrays.asList(new Journal.Op(Journal.HEAD, "three", null)));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(complete + 9);
+            raf.write('X');
+        }
+        journal = new Journal(file);
+        assertEquals("one", journal.head(null));
+        journal.clear();
+        assertEquals(0, file.length());
+        assertEquals("none", new Journal(file).head("none"));
+    }
+
+}
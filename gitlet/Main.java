@@ -1,6 +1,11 @@
 package gitlet;
 
 import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author
@@ -12,100 +17,244 @@ public class Main {
 
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+     *  <COMMAND> <OPERAND> ....  If a daemon is serving this repository,
+     *  the command is passed on to it (see Daemon). */
     public static void main(String... args) {
-        Repo repo;
+        try {
+            if (args.length > 0 && args[0].equals("daemon")) {
+                assertCondition(args.length == 1, "Incorrect operands.");
+                Daemon.serve();
+            } else if (!Daemon.forward(args)) {
+                run(args, Repo::new);
+            }
+        } catch (GitletException excp) {
+            Utils.message("%s", excp.getMessage());
+        }
+        if (Boolean.getBoolean("gitlet.stats")) {
+            long[] cache = Commit.cacheStats();
+            System.err.printf("commit cache: %d hits, %d misses%n", cache[0], cache[1]);
+        }
+    }
+
+    /** Run the command ARGS, getting the repository from REPOS when the
+     *  command needs one, with the locks it needs held, and flushing the
+     *  changes it saved to the journal before releasing them.  Throws
+     *  GitletException for a user error, whose message is what to print. */
+    static void run(String[] args, Supplier<Repo> repos) {
+        run(args, repos, null);
+    }
+
+    /** Run the command ARGS as above, and then, if it got a repository from
+     *  REPOS, run FLUSHED, if not null, once its changes are flushed and
+     *  before its locks are released. */
+    static void run(String[] args, Supplier<Repo> repos, Runnable flushed) {
+        Repo repo = null;
+        Deque<RepoLock> locks = new ArrayDeque<RepoLock>();
         if (args.length == 0) {
-            Utils.message("Please enter a command.");
-            System.exit(0);
+            throw Utils.error("Please enter a command.");
         }
 
-        switch (args[0]) {
-            case "init" :
-                assertCondition(args.length == 1, "Incorrect operands.");
-                setUpRepo();
-                break;
-            case "add" :
-                assertCondition(args.length == 2, "Incorrect operands.");
-                repo = new Repo();
-                repo.add(args[1]);
-                break;
-            case "commit" :
-                assertCondition(args.length == 2, "Incorrect operands.");
-                repo = new Repo();
-                repo.commit(args[1]);
-                break;
-            case "rm" :
-                assertCondition(args.length == 2, "Incorrect operands.");
-                repo = new Repo();
-                repo.remove(args[1]);
-                break;
-            case "log" :
-                assertCondition(args.length == 1, "Incorrect operands.");
-                repo = new Repo();
-                repo.log();
-                break;
-            case "global-log" :
-                assertCondition(args.length == 1, "Incorrect operands.");
-                repo = new Repo();
-                repo.globalLog();
-                break;
-            case "find" :
-                assertCondition(args.length == 2, "Incorrect operands.");
-                repo = new Repo();
-                repo.find(args[1]);
-                break;
-            case "status" :
-                assertCondition(args.length == 1, "Incorrect operands.");
-                repo = new Repo();
-                repo.status();
-                break;
-            case "checkout" :
-                assertCondition(args.length >= 2 && args.length <= 4, "Incorrect operands.");
-                repo = new Repo();
-                if (args.length == 2) {
-                    repo.checkout(args[1]);
-                } else if (args.length == 3) {
-                    assertCondition(args[1].equals("--"), "Incorrect operands.");
-                    repo.checkout(repo.getCommitID(repo.getHead()), args[2]);
-                } else {
-                    assertCondition(args[2].equals("--"), "Incorrect operands.");
-                    repo.checkout(args[1], args[3]);
+        try {
+            switch (args[0]) {
+                case "init" :
+                    assertCondition(args.length == 1, "Incorrect operands.");
+                    setUpRepo();
+                    break;
+                case "add" :
+                    assertCondition(args.length >= 2, "Incorrect operands.");
+                    repo = open(args, repos, locks);
+                    repo.add(Arrays.copyOfRange(args, 1, args.length));
+                    break;
+                case "commit" :
+                    assertCondition(args.length == 2, "Incorrect operands.");
+                    repo = open(args, repos, locks);
+                    repo.commit(args[1]);
+                    break;
+                case "rm" :
+                    assertCondition(args.length == 2, "Incorrect operands.");
+                    repo = open(args, repos, locks);
+                    repo.remove(args[1]);
+                    break;
+                case "log" :
+                    repo = open(args, repos, locks);
+                    repo.log(limit(args));
+                    break;
+                case "global-log" :
+                    repo = open(args, repos, locks);
+                    repo.globalLog(limit(args));
+                    break;
+                case "find" :
+                    assertCondition(args.length == 2 || (args.length == 3
+                            && (args[1].equals("--contains") || args[1].equals("--regex"))),
+                            "Incorrect operands.");
+                    repo = open(args, repos, locks);
+                    if (args.length == 2) {
+                        repo.find(args[1]);
+                    } else if (args[1].equals("--contains")) {
+                        repo.findMatching(Pattern.quote(args[2]));
+                    } else {
+                        repo.findMatching(args[2]);
+                    }
+                    break;
+                case "status" :
+                    assertCondition(args.length == 1
+                            || (args.length == 2 && args[1].equals("--storage")),
+                            "Incorrect operands.");
+                    repo = open(args, repos, locks);
+                    repo.status();
+                    if (args.length == 2) {
+                        repo.storageStatus();
+                    }
+                    break;
+                case "checkout" :
+                    assertCondition(args.length >= 2 && args.length <= 4, "Incorrect operands.");
+                    repo = open(args, repos, locks);
+                    if (args.length == 2) {
+                        repo.checkout(args[1]);
+                    } else if (args.length == 3) {
+                        assertCondition(args[1].equals("--"), "Incorrect operands.");
+                        repo.checkout(repo.getCommitID(repo.getHead()), args[2]);
+                    } else {
+                        assertCondition(args[2].equals("--"), "Incorrect operands.");
+                        repo.checkout(args[1], args[3]);
+                    }
+                    break;
+                case "branch" :
+                    assertCondition(args.length == 2, "Incorrect operands.");
+                    repo = open(args, repos, locks);
+                    repo.branch(args[1]);
+                    break;
+                case "rm-branch" :
+                    assertCondition(args.length == 2, "Incorrect operands.");
+                    repo = open(args, repos, locks);
+                    repo.removeBranch(args[1]);
+                    break;
+                case "reset" :
+                    assertCondition(args.length == 2, "Incorrect operands.");
+                    repo = open(args, repos, locks);
+                    repo.reset(args[1]);
+                    break;
+                case "merge" :
+                    assertCondition(args.length == 2, "Incorrect operands.");
+                    repo = open(args, repos, locks);
+                    repo.merge(args[1]);
+                    break;
+                case "merge-base" :
+                    assertCondition(args.length == 3, "Incorrect operands.");
+                    repo = open(args, repos, locks);
+                    repo.mergeBase(args[1], args[2]);
+                    break;
+                case "count-commits" :
+                    assertCondition(args.length == 2, "Incorrect operands.");
+                    repo = open(args, repos, locks);
+                    repo.countCommits(args[1]);
+                    break;
+                case "gc" :
+                case "repack" :
+                    assertCondition(args.length == 1, "Incorrect operands.");
+                    repo = open(args, repos, locks);
+                    repo.gc();
+                    break;
+                case "migrate" :
+                    assertCondition(args.length == 1, "Incorrect operands.");
+                    repo = open(args, repos, locks);
+                    repo.migrate();
+                    break;
+                case "daemon" :
+                    throw Utils.error("A daemon is already running.");
+                default:
+                    Utils.message("No command with that name exists.");
+            }
+        } finally {
+            try {
+                if (repo != null) {
+                    repo.flush();
+                    if (flushed != null) {
+                        flushed.run();
+                    }
+                }
+            } finally {
+                while (!locks.isEmpty()) {
+                    locks.pop().close();
                 }
+            }
+        }
+    }
+
+    /** Returns the repository from REPOS, having taken the locks the
+     *  command ARGS needs and pushed them on LOCKS (see RepoLock).  Every
+     *  command holds the repository shared, but for those that rewrite the
+     *  object stores, which hold it exclusive.  Commands that change the
+     *  current branch, the staging area or the working files hold HEAD,
+     *  and then the region of the one branch they move, create, delete or
+     *  check out, read once HEAD is held. */
+    private static Repo open(String[] args, Supplier<Repo> repos, Deque<RepoLock> locks) {
+        switch (args[0]) {
+            case "gc":
+            case "repack":
+            case "migrate":
+                locks.push(RepoLock.exclusive(RepoLock.REPOSITORY));
                 break;
-            case "branch" :
-                assertCondition(args.length == 2, "Incorrect operands.");
-                repo = new Repo();
-                repo.branch(args[1]);
+            default:
+                locks.push(RepoLock.shared(RepoLock.REPOSITORY));
+        }
+        switch (args[0]) {
+            case "add":
+            case "rm":
+            case "commit":
+            case "checkout":
+            case "reset":
+            case "merge":
+                locks.push(RepoLock.exclusive(RepoLock.HEAD));
                 break;
-            case "rm-branch" :
-                assertCondition(args.length == 2, "Incorrect operands.");
-                repo = new Repo();
-                repo.removeBranch(args[1]);
+            default:
+        }
+        Repo repo = repos.get();
+        String branch = null;
+        switch (args[0]) {
+            case "commit":
+            case "reset":
+            case "merge":
+                branch = repo.getHead();
                 break;
-            case "reset" :
-                assertCondition(args.length == 2, "Incorrect operands.");
-                repo = new Repo();
-                repo.reset(args[1]);
+            case "checkout":
+                branch = args.length == 2 ? args[1] : null;
                 break;
-            case "merge" :
-                assertCondition(args.length == 2, "Incorrect operands.");
-                repo = new Repo();
-                repo.merge(args[1]);
+            case "branch":
+            case "rm-branch":
+                branch = args[1];
                 break;
             default:
-                Utils.message("No command with that name exists.");
         }
+        if (branch != null) {
+            locks.push(RepoLock.exclusive(RepoLock.branch(branch)));
+        }
+        return repo;
     }
 
     public static boolean isInitialised() {
         return new File(gitletDirectory).exists();
     }
 
+    /** Returns the number of commits the log command ARGS asks for with
+     *  "-n LIMIT", or all of them if it has no operands. */
+    private static int limit(String[] args) {
+        if (args.length == 1) {
+            return Integer.MAX_VALUE;
+        }
+        assertCondition(args.length == 3 && args[1].equals("-n"), "Incorrect operands.");
+        try {
+            int limit = Integer.parseInt(args[2]);
+            assertCondition(limit >= 0, "Incorrect operands.");
+            return limit;
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Incorrect operands.");
+        }
+    }
+
     public static void assertCondition(boolean condition, String message) {
         if (!condition) {
-            Utils.message(message);
-            System.exit(0);
+            throw Utils.error(message);
         }
     }
 
@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Finds the best common ancestors of two commits of a CommitGraph: the
+ *  common ancestors that are not ancestors of another common ancestor.
+ *
+ *  Both commits are walked at once, newest generation first, painting each
+ *  commit reached with the side or sides it was reached from.  A commit
+ *  painted from both sides is a common ancestor; its own ancestors are
+ *  painted STALE, since they cannot be best.  The walk stops as soon as
+ *  every commit left to visit is stale, so it never goes further back in
+ *  the history than the oldest best common ancestor. */
+class MergeBase {
+
+    /** Reached from the first commit. */
+    private static final byte PARENT1 = 1;
+
+    /** Reached from the second commit. */
+    private static final byte PARENT2 = 2;
+
+    /** An ancestor of a common ancestor. */
+    private static final byte STALE = 4;
+
+    /** Found to be a common ancestor. */
+    private static final byte RESULT = 8;
+
+    private final CommitGraph graph;
+
+    MergeBase(CommitGraph graph) {
+        this.graph = graph;
+    }
+
+    /** Returns the best common ancestor of commits A and B with the highest
+     *  generation, or CommitGraph.NONE if they have no common ancestor. */
+    int best(int a, int b) {
+        List<Integer> bases = all(a, b);
+        return bases.isEmpty() ? CommitGraph.NONE : bases.get(0);
+    }
+
+    /** Returns the best common ancestors of commits A and B, highest
+     *  generation first. */
+    List<Integer> all(int a, int b) {
+        List<Integer> candidates = paint(a, b);
+        if (candidates.size() <= 1) {
+            return candidates;
+        }
+        Traversal traversal = new Traversal(graph);
+        List<Integer> bases = new ArrayList<Integer>();
+        for (int candidate : candidates) {
+            boolean redundant = false;
+            for (int other : candidates) {
+                if (other != candidate && traversal.isAncestor(candidate, other)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                bases.add(candidate);
+            }
+        }
+        return bases;
+    }
+
+    /** Paint down from A and B, and return the common ancestors found, in
+     *  the order found, which is highest generation first.  Some may be
+     *  ancestors of others. */
+    private List<Integer> paint(int a, int b) {
+        List<Integer> result = new ArrayList<Integer>();
+        if (a == b) {
+            result.add(a);
+            return result;
+        }
+        byte[] flags = new byte[graph.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>((x, y) -> {
+            int cmp = Integer.compare(graph.generation(y), graph.generation(x));
+            return cmp != 0 ? cmp : Integer.compare(y, x);
+        });
+        flags[a] |= PARENT1;
+        flags[b] |= PARENT2;
+        queue.add(a);
+        queue.add(b);
+        int active = 2;
+        while (active > 0) {
+            int c = queue.poll();
+            int paint = flags[c] & (PARENT1 | PARENT2 | STALE);
+            if ((paint & STALE) == 0) {
+                active -= 1;
+            }
+            if (paint == (PARENT1 | PARENT2)) {
+                if ((flags[c] & RESULT) == 0) {
+                    flags[c] |= RESULT;
+                    result.add(c);
+                }
+                paint |= STALE;
+            }
+            for (int parent : new int[] { graph.parent1(c), graph.parent2(c) }) {
+                if (parent == CommitGraph.NONE || (flags[parent] & paint) == paint) {
+                    continue;
+                }
+                boolean queued = flags[parent] != 0;
+                boolean wasActive = queued && (flags[parent] & STALE) == 0;
+                flags[parent] |= paint;
+                boolean nowActive = (flags[parent] & STALE) == 0;
+                if (!queued) {
+                    queue.add(parent);
+                    if (nowActive) {
+                        active += 1;
+                    }
+                } else if (wasActive && !nowActive) {
+                    active -= 1;
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,335 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/** The log messages of all commits, kept so that find reads neither the
+ *  commits nor their trees.  It is two files.
+ *
+ *  messages is the message table: MAGIC, the stamp of the commit graph,
+ *  the number of messages, the position of the end of the last one, the
+ *  position of the last one, and then the message of each commit in the
+ *  order of the commit graph, as its length and its UTF-8 bytes.  A search
+ *  by pattern is one pass over this table.  New messages are appended
+ *  before the count covering them is updated, and a table made for another
+ *  graph file is rebuilt.
+ *
+ *  Neither file is forced to disk: both are derived from the commits, and
+ *  a crash that loses part of them is detected from their headers.  A
+ *  table whose last message does not end at the recorded end, or a hash
+ *  table that is not exactly as long as its number of slots needs or does
+ *  not cover the whole table, is rebuilt.
+ *
+ *  messages.idx is a hash table of the messages, for finding a message
+ *  exactly: INDEX_MAGIC, the number of slots, a power of two, the number
+ *  in use, and the slots, each the hash of a message, one more than its
+ *  graph index (0 for an empty slot), and its position in the table.
+ *  Collisions probe the following slots.  It is derived from the table,
+ *  and rebuilt, twice as large, when it would be over half full or does
+ *  not cover the table.
+ *
+ *  Both are brought up to date with the commit graph after each commit,
+ *  and before each search, by one process at a time: updates hold the
+ *  INDEXES region of RepoLock exclusive, and searches hold it shared. */
+class MessageIndex {
+
+    static final byte[] MAGIC = { (byte) 0xc7, 'G', 'L', 'M', 2 };
+
+    static final byte[] INDEX_MAGIC = { (byte) 0xc7, 'G', 'L', 'H', 1 };
+
+    static String tableFile = Utils.join(Main.gitletDirectory, "messages").getPath();
+
+    static String indexFile = Utils.join(Main.gitletDirectory, "messages.idx").getPath();
+
+    /** Positions of the fields of the header of the table. */
+    private static final int STAMP = 8;
+    private static final int COUNT = 12;
+    private static final int END = 16;
+    private static final int LAST = 24;
+    private static final int HEADER = 32;
+
+    /** Positions of the fields of the header of the hash table. */
+    private static final int CAPACITY = 8;
+    private static final int USED = 12;
+    private static final int INDEX_HEADER = 16;
+
+    /** Length of a slot of the hash table. */
+    private static final int SLOT = 4 + 4 + 8;
+
+    /** Fewest slots in a hash table. */
+    private static final int MIN_CAPACITY = 64;
+
+    private final CommitGraph graph;
+
+    private final File table;
+
+    private final File index;
+
+    /** The message index of this repository. */
+    MessageIndex() {
+        this(CommitGraph.get(), new File(tableFile), new File(indexFile));
+    }
+
+    /** The message index of GRAPH, in the files TABLE and INDEX. */
+    MessageIndex(CommitGraph graph, File table, File index) {
+        this.graph = graph;
+        this.table = table;
+        this.index = index;
+    }
+
+    /** Append the messages of the commits added to the graph since the last
+     *  update, reading only those commits.  Holds the INDEXES lock
+     *  exclusive, so that processes update the files one at a time, but
+     *  only if there is something to update. */
+    void update() {
+        if (current()) {
+            return;
+        }
+        try (RepoLock lock = RepoLock.exclusive(RepoLock.INDEXES);
+             FileChannel channel = FileChannel.open(table.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            graph.sync();
+            ByteBuffer header = intactHeader(channel);
+            if (header == null) {
+                header = ByteBuffer.allocate(HEADER).put(MAGIC).putInt(STAMP, graph.stamp())
+                    .putInt(COUNT, 0).putLong(END, HEADER).putLong(LAST, 0);
+                channel.truncate(0);
+                channel.write(header.clear(), 0);
+                index.delete();
+            }
+            int count = header.getInt(COUNT);
+            long end = header.getLong(END);
+            if (count >= graph.size()) {
+                addToIndex(count, new ArrayList<long[]>());
+                return;
+            }
+            long last = header.getLong(LAST);
+            List<long[]> added = new ArrayList<long[]>();
+            for (int i = count; i < graph.size(); i += 1) {
+                byte[] message = message(graph.uid(i));
+                ByteBuffer record = ByteBuffer.allocate(4 + message.length);
+                record.putInt(message.length).put(message).flip();
+                last = end;
+                while (record.hasRemaining()) {
+                    end += channel.write(record, end);
+                }
+                added.add(new long[] { i, last, hash(message) });
+            }
+            header.putInt(COUNT, graph.size()).putLong(END, end).putLong(LAST, last);
+            channel.write(header.clear(), 0);
+            addToIndex(count, added);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff the table and the hash table hold the message of
+     *  every commit of the graph, checked from their headers with the
+     *  INDEXES lock held shared. */
+    private boolean current() {
+        try (RepoLock lock = RepoLock.shared(RepoLock.INDEXES);
+             FileChannel messages = FileChannel.open(table.toPath(), StandardOpenOption.READ);
+             FileChannel slots = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+            graph.sync();
+            ByteBuffer header = intactHeader(messages);
+            ByteBuffer indexHeader = ByteBuffer.allocate(INDEX_HEADER);
+            slots.read(indexHeader, 0);
+            return header != null && !indexHeader.hasRemaining()
+                && header.getInt(COUNT) >= graph.size()
+                && intactIndex(indexHeader.flip(), slots.size(), header.getInt(COUNT));
+        } catch (NoSuchFileException excp) {
+            return false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the header of the table open on CHANNEL, or null if it is
+     *  not a table of this graph or was cut short by a crash. */
+    private ByteBuffer intactHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        channel.read(header, 0);
+        if (header.hasRemaining() || !header.flip().slice(0, MAGIC.length)
+                .equals(ByteBuffer.wrap(MAGIC))
+            || header.getInt(STAMP) != graph.stamp()) {
+            return null;
+        }
+        long end = header.getLong(END);
+        long last = header.getLong(LAST);
+        if (end > channel.size()) {
+            return null;
+        } else if (header.getInt(COUNT) == 0) {
+            return end == HEADER ? header : null;
+        }
+        ByteBuffer length = ByteBuffer.allocate(4);
+        channel.read(length, last);
+        return !length.hasRemaining() && last + 4 + length.getInt(0) == end ? header : null;
+    }
+
+    /** Returns true iff HEADER is that of a complete hash table SIZE bytes
+     *  long holding the first COUNT messages. */
+    private static boolean intactIndex(ByteBuffer header, long size, int count) {
+        return header.slice(0, INDEX_MAGIC.length).equals(ByteBuffer.wrap(INDEX_MAGIC))
+            && header.getInt(USED) == count
+            && size == INDEX_HEADER + (long) header.getInt(CAPACITY) * SLOT;
+    }
+
+    /** Returns the UTF-8 log message of the commit UID. */
+    private static byte[] message(String uid) {
+        String message = Commit.fromUID(uid).logMessage;
+        return (message == null ? "" : message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Returns the hash of the UTF-8 message MESSAGE. */
+    private static int hash(byte[] message) {
+        int h = 0;
+        for (byte b : message) {
+            h = 31 * h + b;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /** Returns the UIDs of the commits whose message is MESSAGE, oldest
+     *  first, with one lookup in the hash table. */
+    List<String> find(String message) {
+        update();
+        byte[] wanted = message.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(wanted);
+        List<Integer> found = new ArrayList<Integer>();
+        try (RepoLock lock = RepoLock.shared(RepoLock.INDEXES)) {
+            MappedByteBuffer slots = map(index, FileChannel.MapMode.READ_ONLY, 0);
+            MappedByteBuffer messages = map(table, FileChannel.MapMode.READ_ONLY, 0);
+            int capacity = slots.getInt(CAPACITY);
+            for (int s = hash & (capacity - 1); ; s = (s + 1) & (capacity - 1)) {
+                int slot = INDEX_HEADER + s * SLOT;
+                int entry = slots.getInt(slot + 4);
+                if (entry == 0) {
+                    break;
+                }
+                if (slots.getInt(slot) == hash && messageAt(messages, slots.getLong(slot + 8))
+                        .equals(ByteBuffer.wrap(wanted))) {
+                    found.add(entry - 1);
+                }
+            }
+        }
+        found.sort(null);
+        List<String> result = new ArrayList<String>();
+        for (int i : found) {
+            result.add(graph.uid(i));
+        }
+        return result;
+    }
+
+    /** Returns the UIDs of the commits whose message TEST accepts, oldest
+     *  first, with one pass over the table. */
+    List<String> search(Predicate<String> test) {
+        update();
+        List<String> result = new ArrayList<String>();
+        try (RepoLock lock = RepoLock.shared(RepoLock.INDEXES)) {
+            MappedByteBuffer messages = map(table, FileChannel.MapMode.READ_ONLY, 0);
+            int count = messages.getInt(COUNT);
+            long position = HEADER;
+            for (int i = 0; i < count; i += 1) {
+                ByteBuffer message = messageAt(messages, position);
+                position += 4 + message.remaining();
+                if (test.test(StandardCharsets.UTF_8.decode(message).toString())) {
+                    result.add(graph.uid(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the bytes of the message at POSITION of MESSAGES. */
+    private static ByteBuffer messageAt(ByteBuffer messages, long position) {
+        int length = messages.getInt((int) position);
+        return messages.slice((int) position + 4, length);
+    }
+
+    /** Add the messages ADDED, each its graph index, position and hash, to
+     *  the hash table, which covered the first COUNT messages.  Rebuilds
+     *  the hash table instead if it does not cover them or has no room. */
+    private void addToIndex(int count, List<long[]> added) throws IOException {
+        MappedByteBuffer slots = index.exists()
+            ? map(index, FileChannel.MapMode.READ_WRITE, 0) : null;
+        if (slots == null || slots.capacity() < INDEX_HEADER
+            || !intactIndex(slots, slots.capacity(), count)
+            || 2L * (count + added.size()) > slots.getInt(CAPACITY)) {
+            rebuildIndex(count + added.size());
+            return;
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+        for (long[] entry : added) {
+            put(slots, (int) entry[0], entry[1], (int) entry[2]);
+        }
+        slots.putInt(USED, count + added.size());
+    }
+
+    /** Write a hash table of the first COUNT messages of the table, with
+     *  room for as many again, in place of the current one. */
+    private void rebuildIndex(int count) throws IOException {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2L * count + 2) {
+            capacity *= 2;
+        }
+        File temp = Utils.tempFile(index);
+        MappedByteBuffer slots = map(temp, FileChannel.MapMode.READ_WRITE,
+                                     INDEX_HEADER + (long) capacity * SLOT);
+        slots.put(0, INDEX_MAGIC);
+        slots.putInt(CAPACITY, capacity);
+        MappedByteBuffer messages = map(table, FileChannel.MapMode.READ_ONLY, 0);
+        long position = HEADER;
+        for (int i = 0; i < count; i += 1) {
+            ByteBuffer message = messageAt(messages, position);
+            byte[] bytes = new byte[message.remaining()];
+            message.get(bytes);
+            put(slots, i, position, hash(bytes));
+            position += 4 + bytes.length;
+        }
+        slots.putInt(USED, count);
+        Files.move(temp.toPath(), index.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Put the message of commit I, at POSITION of the table with hash
+     *  HASH, in the first free slot of SLOTS from its home slot. */
+    private static void put(ByteBuffer slots, int i, long position, int hash) {
+        int capacity = slots.getInt(CAPACITY);
+        int s = hash & (capacity - 1);
+        while (slots.getInt(INDEX_HEADER + s * SLOT + 4) != 0) {
+            s = (s + 1) & (capacity - 1);
+        }
+        int slot = INDEX_HEADER + s * SLOT;
+        slots.putLong(slot + 8, position);
+        slots.putInt(slot, hash);
+        slots.putInt(slot + 4, i + 1);
+    }
+
+    /** Returns FILE mapped in MODE, at least SIZE bytes long. */
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode, long size) {
+        StandardOpenOption[] options = mode == FileChannel.MapMode.READ_ONLY
+            ? new StandardOpenOption[] { StandardOpenOption.READ }
+            : new StandardOpenOption[] { StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                         StandardOpenOption.WRITE };
+        try (FileChannel channel = FileChannel.open(file.toPath(), options)) {
+            return channel.map(mode, 0, Math.max(size, channel.size()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,254 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/** Reading and converting objects written by earlier versions of gitlet,
+ *  which stored each commit and blob as a serialized Java object.  Those
+ *  objects are read through stand-in classes with the same serialized
+ *  fields, so they stay readable however the current classes change. */
+class Migration {
+
+    /** The first bytes of a serialized Java object. */
+    private static final byte[] STREAM_MAGIC = { (byte) 0xac, (byte) 0xed };
+
+    /** Marks a new object in a serialized stream. */
+    private static final byte TC_OBJECT = 0x73;
+
+    /** Marks a new class description in a serialized stream. */
+    private static final byte TC_CLASSDESC = 0x72;
+
+    /** Position in a serialized object of the name of its class, after the
+     *  stream header, TC_OBJECT, TC_CLASSDESC and the length of the name. */
+    private static final int CLASS_NAME = 8;
+
+    /** Format of the dates of serialized commits. */
+    private static final DateTimeFormatter LEGACY_DATE =
+        DateTimeFormatter.ofPattern("E MMM d HH:mm:ss yyyy Z");
+
+    /** The serialized fields of a commit as gitlet once wrote it. */
+    static class LegacyCommit implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        String logMessage;
+        String timeStamp;
+        String UID;
+        String parentCommit1;
+        String parentCommit2;
+        boolean isFirstCommit;
+        HashMap<String, String> blobMap;
+    }
+
+    /** The serialized fields of a blob as gitlet once wrote it. */
+    static class LegacyBlob implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        String UID;
+        byte[] contents;
+    }
+
+    /** Returns true iff the stored object CONTENTS is a serialized Java
+     *  object. */
+    static boolean isLegacy(byte[] contents) {
+        return contents.length >= 2 && contents[0] == STREAM_MAGIC[0]
+            && contents[1] == STREAM_MAGIC[1];
+    }
+
+    /** The start of a serialized blob. */
+    private static final byte[] BLOB_HEAD = legacyHead("gitlet.Blob");
+
+    /** Returns the first bytes of an object serialized by CLASSNAME: the
+     *  stream header, and the start of the description of its class. */
+    private static byte[] legacyHead(String className) {
+        byte[] name = className.getBytes(StandardCharsets.UTF_8);
+        byte[] head = new byte[CLASS_NAME + name.length];
+        head[0] = STREAM_MAGIC[0];
+        head[1] = STREAM_MAGIC[1];
+        head[3] = 5;
+        head[CLASS_NAME - 4] = TC_OBJECT;
+        head[CLASS_NAME - 3] = TC_CLASSDESC;
+        head[CLASS_NAME - 1] = (byte) name.length;
+        System.arraycopy(name, 0, head, CLASS_NAME, name.length);
+        return head;
+    }
+
+    /** Returns the number of bytes isLegacyBlob needs. */
+    static int blobHeadLength() {
+        return BLOB_HEAD.length;
+    }
+
+    /** Returns true iff HEAD, the first bytes of a stored blob, are those of
+     *  a serialized blob rather than of a manifest, whose first bytes are
+     *  those of a hash and so could match isLegacy by chance. */
+    static boolean isLegacyBlob(byte[] head) {
+        return Arrays.equals(head, BLOB_HEAD);
+    }
+
+    /** Returns the commit UID from the serialized commit CONTENTS. */
+    static Commit readLegacyCommit(String UID, byte[] contents) {
+        LegacyCommit legacy = readLegacy(contents, "gitlet.Commit", LegacyCommit.class);
+        long time = 0;
+        int zoneOffset = 0;
+        if (legacy.timeStamp != null) {
+            try {
+                OffsetDateTime date = OffsetDateTime.parse(legacy.timeStamp, LEGACY_DATE);
+                time = date.toInstant().toEpochMilli();
+                zoneOffset = date.getOffset().getTotalSeconds();
+            } catch (DateTimeParseException excp) {
+                time = 0;
+            }
+        }
+        Commit commit = new Commit(legacy.logMessage, legacy.parentCommit1, legacy.parentCommit2,
+                                   time, zoneOffset,
+                                   legacy.blobMap == null ? new HashMap<String, String>() : legacy.blobMap);
+        commit.UID = UID;
+        commit.isFirstCommit = legacy.isFirstCommit;
+        return commit;
+    }
+
+    /** Returns the contents of the file held by the serialized blob
+     *  CONTENTS. */
+    static byte[] readLegacyBlob(byte[] contents) {
+        byte[] result = readLegacy(contents, "gitlet.Blob", LegacyBlob.class).contents;
+        return result == null ? new byte[0] : result;
+    }
+
+    /** Returns the object serialized in CONTENTS by the class CLASSNAME,
+     *  read as an instance of TYPE, its stand-in.  The name and version of
+     *  the class are replaced by those of TYPE at the head of CONTENTS, so
+     *  that its fields are matched with those of TYPE by name: fields the
+     *  stand-in lacks are skipped, and those the stream lacks are left
+     *  null. */
+    static <T> T readLegacy(byte[] contents, String className, Class<T> type) {
+        int nameLength = contents.length < CLASS_NAME ? -1
+            : ((contents[CLASS_NAME - 2] & 0xff) << 8) | (contents[CLASS_NAME - 1] & 0xff);
+        if (nameLength < 0 || contents[CLASS_NAME - 4] != TC_OBJECT
+            || contents[CLASS_NAME - 3] != TC_CLASSDESC
+            || !className.equals(new String(contents, CLASS_NAME,
+                                            Math.min(nameLength, contents.length - CLASS_NAME),
+                                            StandardCharsets.UTF_8))) {
+            throw new IllegalArgumentException("not a serialized " + className);
+        }
+        int fields = CLASS_NAME + nameLength + 8;
+        try (ObjectInputStream in = new ObjectInputStream(
+                 new ByteArrayInputStream(patch(contents, fields, type)))) {
+            return type.cast(in.readObject());
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns CONTENTS with everything before FIELDS, the end of the
+     *  name and version of its class, replaced by that of TYPE. */
+    private static byte[] patch(byte[] contents, int fields, Class<?> type) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(contents.length + 32);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.write(contents, 0, CLASS_NAME - 2);
+        out.writeUTF(type.getName());
+        out.writeLong(ObjectStreamClass.lookup(type).getSerialVersionUID());
+        out.write(contents, fields, contents.length - fields);
+        return buffer.toByteArray();
+    }
+
+    /** Rewrite every commit in the current encoding.  Since the UID of a
+     *  commit is the hash of its encoding, rewritten commits get new UIDs,
+     *  and so do their descendants.  Commits are rewritten parents first.
+     *  The old versions are left in place, to be deleted by dropCommits
+     *  once the branches have been moved.  Returns a map from the old UID
+     *  of every commit to its new one. */
+    static Map<String, String> migrateCommits() {
+        Map<String, String> renamed = new HashMap<String, String>();
+        for (String start : Commit.store.list()) {
+            Deque<String> stack = new ArrayDeque<String>();
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String uid = stack.peek();
+                if (renamed.containsKey(uid)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = Commit.fromUID(uid);
+                boolean ready = true;
+                for (String parent : commit.getParentUIDs()) {
+                    if (!renamed.containsKey(parent)) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (!ready) {
+                    continue;
+                }
+                Commit rewritten = new Commit(commit.logMessage,
+                        renamed.get(commit.parentCommit1), renamed.get(commit.parentCommit2),
+                        commit.time, commit.zoneOffset, commit.getBlobMap());
+                renamed.put(uid, rewritten.write());
+                stack.pop();
+            }
+        }
+        return renamed;
+    }
+
+    /** Delete every commit that is not the new version of one in RENAMED,
+     *  as returned by migrateCommits.  Only to be called once no branch
+     *  refers to an old version on disk. */
+    static void dropCommits(Map<String, String> renamed) {
+        Commit.store.retain(new HashSet<String>(renamed.values()));
+        Commit.clearCache();
+        CommitGraph.reset();
+    }
+
+    /** Rewrite every serialized blob as a chunked one.  The UID of a blob
+     *  is the hash of its contents, so it does not change, and each chunked
+     *  blob replaces the serialized one only once it is on disk.  The
+     *  contents are copied to a temporary file in .gitlet first, which is
+     *  left there if the rewrite fails.  Returns the number of blobs
+     *  rewritten. */
+    static int migrateBlobs() {
+        List<String> legacy = new ArrayList<String>();
+        for (String uid : Blob.blobStore.list()) {
+            try (InputStream in = Blob.blobStore.open(uid)) {
+                if (isLegacyBlob(in.readNBytes(blobHeadLength()))) {
+                    legacy.add(uid);
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        if (legacy.isEmpty()) {
+            return 0;
+        }
+        for (String uid : legacy) {
+            try {
+                File file = File.createTempFile("gitlet", ".blob", new File(Main.gitletDirectory));
+                Files.write(file.toPath(), readLegacyBlob(Blob.blobStore.read(uid)));
+                new Blob(file, uid).rewrite();
+                file.delete();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        Blob.blobStore.retain(new HashSet<String>(Blob.blobStore.list()));
+        return legacy.size();
+    }
+
+}
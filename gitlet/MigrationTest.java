@@ -0,0 +1,93 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Migration, run on repositories holding objects as earlier
+ *  versions of gitlet wrote them.
+ *  @author
+ */
+public class MigrationTest {
+
+    /** Returns OBJECT serialized as though by the class CLASSNAME. */
+    private static byte[] legacy(Serializable object, String className) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(object);
+        }
+        byte[] bytes = buffer.toByteArray();
+        int end = 8 + (((bytes[6] & 0xff) << 8) | (bytes[7] & 0xff));
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(result);
+        out.write(bytes, 0, 6);
+        out.writeUTF(className);
+        out.write(bytes, end, bytes.length - end);
+        return result.toByteArray();
+    }
+
+    /** A repository whose master is a serialized commit on top of the
+     *  initial commit, holding a serialized blob, is migrated, after being
+     *  packed if GC.  The history and the file must survive. */
+    private static void checkMigrate(boolean gc) throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        assertEquals("", ConcurrencyTest.gitlet(dir, "init"));
+        String initial = ConcurrencyTest.gitlet(dir, "log").split("\n")[1].substring(7);
+
+        byte[] contents = "legacy contents\n".getBytes(StandardCharsets.UTF_8);
+        Migration.LegacyBlob blob = new Migration.LegacyBlob();
+        blob.UID = Utils.sha1(contents, 0, contents.length);
+        blob.contents = contents;
+        Files.write(new File(dir, ".gitlet/blobs/" + blob.UID + ".data").toPath(),
+                    legacy(blob, "gitlet.Blob"));
+
+        Migration.LegacyCommit commit = new Migration.LegacyCommit();
+        commit.logMessage = "legacy";
+        commit.UID = Utils.sha1("legacy commit");
+        commit.parentCommit1 = initial;
+        commit.blobMap = new HashMap<String, String>();
+        commit.blobMap.put("a.txt", blob.UID);
+        Files.write(new File(dir, ".gitlet/commits/" + commit.UID + ".data").toPath(),
+                    legacy(commit, "gitlet.Commit"));
+        new File(dir, ".gitlet/commit-graph").delete();
+
+        assertEquals("", ConcurrencyTest.gitlet(dir, "reset", commit.UID));
+        if (gc) {
+            assertEquals("", ConcurrencyTest.gitlet(dir, "gc"));
+        }
+        String output = ConcurrencyTest.gitlet(dir, "migrate");
+        assertTrue(output, output.matches("Migrated \\d+ commits and 1 blobs\\."));
+
+        String log = ConcurrencyTest.gitlet(dir, "log");
+        assertEquals(2, log.split("\ncommit ", -1).length - 1);
+        assertTrue(log.contains("\nlegacy\n"));
+        assertFalse(log.contains(commit.UID));
+        new File(dir, "a.txt").delete();
+        assertEquals("", ConcurrencyTest.gitlet(dir, "checkout", "--", "a.txt"));
+        assertArrayEquals(contents, Files.readAllBytes(new File(dir, "a.txt").toPath()));
+        assertEquals("Migrated 0 commits and 0 blobs.", ConcurrencyTest.gitlet(dir, "migrate"));
+        for (String name : new File(dir, ".gitlet").list()) {
+            assertFalse(name, name.endsWith(".blob"));
+        }
+    }
+
+    @Test
+    public void migratesLooseObjects() throws IOException {
+        checkMigrate(false);
+    }
+
+    @Test
+    public void migratesAfterGc() throws IOException {
+        checkMigrate(true);
+    }
+
+}
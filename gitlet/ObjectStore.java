@@ -0,0 +1,610 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/** A directory of content-addressed objects.  An object is either loose,
+ *  stored in its own file UID.data, or packed into the directory's Pack
+ *  by repack.  An object file starts with a header of the four MAGIC bytes
+ *  and the id of the Codec that encoded the rest of the file.  Files
+ *  without the header were written before objects were compressed, and
+ *  are read as they are. */
+class ObjectStore {
+
+    /** Marks the start of an object file that carries a codec header. */
+    static final byte[] MAGIC = { (byte) 0xc7, 'G', 'L', 'T' };
+
+    /** Length of the header of an object file. */
+    static final int HEADER_LENGTH = MAGIC.length + 1;
+
+    /** The codecs able to read stored objects, indexed by id. */
+    private static final Codec[] CODECS = new Codec[256];
+
+    static {
+        register(Codec.NONE);
+        register(Codec.DEFLATE);
+        register(Codec.DEFLATE_FAST);
+        register(Codec.DEFLATE_BEST);
+    }
+
+    /** Writes the contents of an object. */
+    interface ObjectWriter {
+        /** Write the contents of the object to OUT. */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /** The directory holding the objects. */
+    private final String directory;
+
+    /** The loose objects and pack files written by this process, in any
+     *  store, that have not been forced to disk yet, with the directories
+     *  naming them. */
+    private static final Set<File> UNSYNCED = new LinkedHashSet<File>();
+
+    /** The most bytes of rebuilt delta bases kept in BASECACHE. */
+    private static final long BASE_CACHE_LIMIT = 16 << 20;
+
+    /** Recently rebuilt contents of packed objects, least recently used
+     *  first, so that objects sharing a delta chain rebuild it once. */
+    private final LinkedHashMap<String, byte[]> baseCache =
+        new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+    /** Total length of the contents in BASECACHE. */
+    private long baseCacheBytes;
+
+    /** The packed objects of this store, or null if there are none. */
+    private Pack pack;
+
+    /** True once PACK has been read from disk. */
+    private boolean packLoaded;
+
+    ObjectStore(String directory) {
+        this.directory = directory;
+    }
+
+    /** Make CODEC available for reading and writing objects. */
+    static void register(Codec codec) {
+        CODECS[codec.id() & 0xff] = codec;
+    }
+
+    /** Returns the registered codec named NAME.  Throws
+     *  IllegalArgumentException if there is none. */
+    static Codec codecNamed(String name) {
+        for (Codec codec : CODECS) {
+            if (codec != null && codec.name().equals(name)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("unknown codec: " + name);
+    }
+
+    /** Returns the codec used for new objects, chosen with the system
+     *  property gitlet.codec. */
+    static Codec defaultCodec() {
+        return codecNamed(System.getProperty("gitlet.codec", Codec.DEFLATE.name()));
+    }
+
+    /** Returns the file holding the object UID. */
+    File file(String uid) {
+        return Utils.join(directory, uid + ".data");
+    }
+
+    boolean contains(String uid) {
+        return file(uid).exists() || (pack() != null && pack().find(uid) >= 0);
+    }
+
+    /** Returns the UIDs of all objects in this store. */
+    List<String> list() {
+        List<String> result = listLoose();
+        Pack pack = pack();
+        if (pack != null) {
+            HashSet<String> loose = new HashSet<String>(result);
+            for (int i = 0; i < pack.size(); i += 1) {
+                String uid = pack.uid(i);
+                if (!loose.contains(uid)) {
+                    result.add(uid);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the UIDs of all objects in this store as a lazy stream:
+     *  the loose objects, then the packed ones, read from the pack index
+     *  as they are consumed. */
+    Stream<String> uids() {
+        List<String> loose = listLoose();
+        Pack pack = pack();
+        if (pack == null) {
+            return loose.stream();
+        }
+        HashSet<String> unpacked = new HashSet<String>(loose);
+        return Stream.concat(loose.stream(), IntStream.range(0, pack.size())
+                             .mapToObj(pack::uid).filter(uid -> !unpacked.contains(uid)));
+    }
+
+    /** Returns the UIDs of the loose objects in this store. */
+    List<String> listLoose() {
+        List<String> result = new ArrayList<String>();
+        String[] names = new File(directory).list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(".data")) {
+                    result.add(name.substring(0, name.length() - ".data".length()));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the number of bytes the object UID occupies on disk. */
+    long storedSize(String uid) {
+        File file = file(uid);
+        if (file.exists() || pack() == null || pack().find(uid) < 0) {
+            return file.length();
+        }
+        return pack().payload(pack().offset(pack().find(uid))).length;
+    }
+
+    /** Move every loose object of this store into its pack, creating the
+     *  pack if there is none. */
+    void repack() {
+        repack(Collections.emptyMap());
+    }
+
+    /** Move every loose object of this store into its pack, creating the
+     *  pack if there is none.  BASES maps objects to the objects they are
+     *  likely to be similar to, which are tried as delta bases (see
+     *  Pack.append).  The objects in BASES are packed first, in its order. */
+    void repack(Map<String, List<String>> bases) {
+        List<String> loose = listLoose();
+        if (loose.isEmpty()) {
+            return;
+        }
+        Pack old = pack();
+        LinkedHashSet<String> added = new LinkedHashSet<String>();
+        HashSet<String> looseSet = new HashSet<String>(loose);
+        for (String uid : bases.keySet()) {
+            if (looseSet.contains(uid) && (old == null || old.find(uid) < 0)) {
+                added.add(uid);
+            }
+        }
+        for (String uid : loose) {
+            if (old == null || old.find(uid) < 0) {
+                added.add(uid);
+            }
+        }
+        try {
+            Pack.append(packFile(), indexFile(), old, this, new ArrayList<String>(added), bases);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        packLoaded = false;
+        unsynced(packFile());
+        unsynced(indexFile());
+        for (String uid : loose) {
+            delete(uid);
+        }
+    }
+
+    /** Delete every object of this store whose UID is not in KEEP.  Since
+     *  the pack is append-only, a pack holding such objects, or objects
+     *  that replace has since shadowed with loose ones, is replaced: the
+     *  objects to keep are first copied out of it as loose objects, and
+     *  then packed anew.  Delta entries are not preserved. */
+    void retain(Set<String> keep) {
+        for (String uid : listLoose()) {
+            if (!keep.contains(uid)) {
+                delete(uid);
+            }
+        }
+        Pack pack = pack();
+        if (pack == null) {
+            return;
+        }
+        List<String> packed = new ArrayList<String>();
+        for (int i = 0; i < pack.size(); i += 1) {
+            packed.add(pack.uid(i));
+        }
+        if (keep.containsAll(packed) && Collections.disjoint(packed, listLoose())) {
+            return;
+        }
+        for (String uid : packed) {
+            if (keep.contains(uid) && !file(uid).exists()) {
+                writeLoose(uid, encode(read(uid)));
+            }
+        }
+        syncWritten();
+        packFile().delete();
+        indexFile().delete();
+        packLoaded = false;
+        baseCache.clear();
+        baseCacheBytes = 0;
+        repack();
+    }
+
+    /** Store the LENGTH bytes of DATA starting at OFFSET as the object UID,
+     *  unless it is already present.  The data are stored uncompressed if
+     *  the default codec does not make them smaller. */
+    void write(String uid, byte[] data, int offset, int length) {
+        if (contains(uid)) {
+            return;
+        }
+        writeLoose(uid, encode(data, offset, length));
+    }
+
+    /** Store ENCODED, the contents of an object file, as the loose object
+     *  UID. */
+    private void writeLoose(String uid, byte[] encoded) {
+        File temp = Utils.tempFile(file(uid));
+        try (OutputStream out = new FileOutputStream(temp)) {
+            out.write(encoded);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        moveInto(temp, file(uid));
+    }
+
+    /** Returns DATA as it would be stored in an object file: with a
+     *  header, and encoded with the default codec if that makes it
+     *  smaller. */
+    static byte[] encode(byte[] data) {
+        return encode(data, 0, data.length);
+    }
+
+    /** Returns the LENGTH bytes of DATA starting at OFFSET as they would be
+     *  stored in an object file. */
+    static byte[] encode(byte[] data, int offset, int length) {
+        Codec codec = defaultCodec();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(length + HEADER_LENGTH);
+        try {
+            if (codec != Codec.NONE) {
+                writeHeader(buffer, codec);
+                try (OutputStream out = codec.encode(buffer)) {
+                    out.write(data, offset, length);
+                }
+                if (buffer.size() < length + HEADER_LENGTH) {
+                    return buffer.toByteArray();
+                }
+                buffer.reset();
+            }
+            writeHeader(buffer, Codec.NONE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        buffer.write(data, offset, length);
+        return buffer.toByteArray();
+    }
+
+    /** Store the contents written by WRITER as the object UID, encoded with
+     *  the default codec, unless the object is already present.  The object
+     *  appears under its UID only once it has been completely written. */
+    void write(String uid, ObjectWriter writer) {
+        if (contains(uid)) {
+            return;
+        }
+        moveInto(writeTemp(uid, writer), file(uid));
+    }
+
+    /** Store the contents written by WRITER as the object UID, as write
+     *  does, but in place of any object already stored as UID.  The old
+     *  object stays readable until the new one, and every object written
+     *  before it, is on disk, and is then replaced in one rename.  A packed
+     *  old object is shadowed by the new loose one until retain rewrites
+     *  the pack. */
+    void replace(String uid, ObjectWriter writer) {
+        File temp = writeTemp(uid, writer);
+        syncWritten();
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        moveInto(temp, file(uid));
+        syncWritten();
+    }
+
+    /** Returns a new temporary file beside the object UID holding the
+     *  contents written by WRITER, encoded with the default codec. */
+    private File writeTemp(String uid, ObjectWriter writer) {
+        Codec codec = defaultCodec();
+        File temp = Utils.tempFile(file(uid));
+        try {
+            try (OutputStream file = new BufferedOutputStream(new FileOutputStream(temp),
+                                                              Utils.BUFFER_SIZE)) {
+                writeHeader(file, codec);
+                OutputStream out = codec.encode(file);
+                writer.writeTo(out);
+                out.close();
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return temp;
+    }
+
+    /** Returns a stream of the decoded contents of the object UID.  Throws
+     *  IllegalArgumentException if there is no such object. */
+    InputStream open(String uid) {
+        try {
+            File file = file(uid);
+            if (!file.exists() && pack() != null && pack().find(uid) >= 0) {
+                long offset = pack().offset(pack().find(uid));
+                if (pack().type(offset) == Pack.DELTA) {
+                    return new ByteArrayInputStream(rebuild(uid, offset));
+                }
+                return decode(new ByteArrayInputStream(pack().payload(offset)));
+            }
+            InputStream in = new BufferedInputStream(new FileInputStream(file),
+                                                     Utils.BUFFER_SIZE);
+            return decode(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Append the decoded contents of the object UID to OUT.  An object
+     *  stored without compression does not pass through the heap: a loose
+     *  one is copied with FileChannel.transferTo, and a packed one is
+     *  written straight from the mapped pack. */
+    void copyTo(String uid, FileChannel out) throws IOException {
+        File file = file(uid);
+        if (file.exists()) {
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                while (header.hasRemaining() && in.read(header) != -1) {
+                    continue;
+                }
+                int start = rawStart(header.array(), header.position());
+                if (start >= 0) {
+                    in.position(start);
+                    Utils.transferContents(in, out);
+                    return;
+                }
+            }
+        } else if (pack() != null && pack().find(uid) >= 0) {
+            long offset = pack().offset(pack().find(uid));
+            if (pack().type(offset) == Pack.FULL) {
+                ByteBuffer payload = pack().payloadBuffer(offset);
+                byte[] header = new byte[Math.min(HEADER_LENGTH, payload.remaining())];
+                payload.duplicate().get(header);
+                int start = rawStart(header, header.length);
+                if (start >= 0) {
+                    payload.position(payload.position() + start);
+                    while (payload.hasRemaining()) {
+                        out.write(payload);
+                    }
+                    return;
+                }
+            }
+        }
+        try (InputStream in = open(uid)) {
+            byte[] buffer = new byte[Utils.BUFFER_SIZE];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, n);
+                while (data.hasRemaining()) {
+                    out.write(data);
+                }
+            }
+        }
+    }
+
+    /** Returns where the raw contents start in an object file whose first
+     *  LENGTH bytes are HEADER, or -1 if the contents are encoded. */
+    private static int rawStart(byte[] header, int length) {
+        if (length < HEADER_LENGTH || !hasMagic(header)) {
+            return 0;
+        }
+        return header[MAGIC.length] == Codec.NONE.id() ? HEADER_LENGTH : -1;
+    }
+
+    /** Returns the decoded contents of the object UID. */
+    byte[] read(String uid) {
+        try (InputStream in = open(uid)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the contents of the packed object UID, whose entry at
+     *  OFFSET is a delta, by applying the delta to the contents of its
+     *  base.  Rebuilt contents are cached, so that objects further along
+     *  the same chain need not rebuild the whole chain again. */
+    private synchronized byte[] rebuild(String uid, long offset) throws IOException {
+        byte[] contents = baseCache.get(uid);
+        if (contents != null) {
+            return contents;
+        }
+        byte[] payload = pack().payload(offset);
+        String baseUID = Utils.bytesToUID(payload, 0);
+        byte[] base = baseCache.get(baseUID);
+        if (base == null) {
+            base = read(baseUID);
+            cacheBase(baseUID, base);
+        }
+        byte[] delta;
+        try (InputStream in = decode(new ByteArrayInputStream(
+                payload, Pack.HASH_LENGTH + 1, payload.length - Pack.HASH_LENGTH - 1))) {
+            delta = in.readAllBytes();
+        }
+        contents = Delta.apply(base, delta);
+        cacheBase(uid, contents);
+        return contents;
+    }
+
+    private void cacheBase(String uid, byte[] contents) {
+        if (baseCache.put(uid, contents) == null) {
+            baseCacheBytes += contents.length;
+        }
+        Iterator<Map.Entry<String, byte[]>> eldest = baseCache.entrySet().iterator();
+        while (baseCacheBytes > BASE_CACHE_LIMIT && eldest.hasNext()) {
+            baseCacheBytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    /** Drop the pack and cached contents read from disk, so that they are
+     *  read again when next needed, after another process may have changed
+     *  them. */
+    synchronized void reload() {
+        packLoaded = false;
+        pack = null;
+        baseCache.clear();
+        baseCacheBytes = 0;
+    }
+
+    /** Delete the object UID if it is loose.  Packed objects are never
+     *  deleted, since the pack is append-only. */
+    void delete(String uid) {
+        File file = file(uid);
+        synchronized (UNSYNCED) {
+            UNSYNCED.remove(file);
+        }
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    private File packFile() {
+        return Utils.join(directory, "objects.pack");
+    }
+
+    private File indexFile() {
+        return Utils.join(directory, "objects.idx");
+    }
+
+    /** Returns the pack of this store, reading it if necessary, or null if
+     *  the store has none. */
+    private synchronized Pack pack() {
+        if (!packLoaded) {
+            packLoaded = true;
+            pack = null;
+            if (indexFile().exists()) {
+                try {
+                    pack = new Pack(packFile(), indexFile());
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return pack;
+    }
+
+    /** Returns a stream of the decoded contents of the object file read by
+     *  IN, which must support mark and reset. */
+    static InputStream decode(InputStream in) throws IOException {
+        in.mark(HEADER_LENGTH);
+        byte[] header = in.readNBytes(HEADER_LENGTH);
+        if (header.length < HEADER_LENGTH || !hasMagic(header)) {
+            in.reset();
+            return in;
+        }
+        Codec codec = CODECS[header[MAGIC.length] & 0xff];
+        if (codec == null) {
+            in.close();
+            throw new IOException("object written with an unknown codec");
+        }
+        return codec.decode(in);
+    }
+
+    /** Returns true iff HEADER begins with MAGIC. */
+    static boolean hasMagic(byte[] header) {
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeHeader(OutputStream out, Codec codec) throws IOException {
+        out.write(MAGIC);
+        out.write(codec.id());
+    }
+
+    /** Rename the fully written TEMP to TARGET, so that a partially written
+     *  object is never visible under its UID. */
+    private static void moveInto(File temp, File target) {
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        unsynced(target);
+    }
+
+    /** Remember that FILE has been written, and must be forced to disk by
+     *  the next syncWritten. */
+    private static void unsynced(File file) {
+        synchronized (UNSYNCED) {
+            UNSYNCED.add(file);
+        }
+    }
+
+    /** Force the loose objects and packs written since the last call to
+     *  disk, with the directories naming them, so that a journal record
+     *  written next never refers to an object a crash could lose.  Repo.flush
+     *  calls this before journaling a command, and retain before deleting a
+     *  pack whose objects it has copied out.  Objects deleted since they
+     *  were written, as by repack, are skipped. */
+    static void syncWritten() {
+        List<File> files;
+        synchronized (UNSYNCED) {
+            files = new ArrayList<File>(UNSYNCED);
+            UNSYNCED.clear();
+        }
+        Set<File> directories = new LinkedHashSet<File>();
+        try {
+            for (File file : files) {
+                try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                            StandardOpenOption.READ)) {
+                    channel.force(true);
+                } catch (NoSuchFileException excp) {
+                    continue;
+                }
+                directories.add(file.getParentFile());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (File directory : directories) {
+            try (FileChannel channel = FileChannel.open(directory.toPath(),
+                                                        StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException excp) {
+                /* Not every platform can force a directory. */
+            }
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The packed objects of an ObjectStore: a single append-only pack file
+ *  holding the objects one after another, and an index file mapping each
+ *  UID to the position of its object in the pack.
+ *
+ *  The pack file is PACK_MAGIC followed by entries, each a type byte, the
+ *  length of the payload as an int, and the payload.  The payload of a
+ *  FULL entry is the object exactly as it would be stored in a loose file.
+ *  The payload of a DELTA entry is the raw UID of its base object, the
+ *  length of the chain of deltas down to a FULL entry, and a Delta against
+ *  the contents of the base, stored like an object file.
+ *
+ *  The index file is INDEX_MAGIC, the number of objects, a fanout table of
+ *  256 ints whose Ith element is the number of objects whose UID starts
+ *  with a byte no greater than I, and then one entry per object, sorted by
+ *  UID: the 20 raw bytes of the UID and the offset of its entry in the pack.
+ *  Both files are memory-mapped, so finding an object is a binary search
+ *  within its fanout bucket and opens no file. */
+class Pack {
+
+    static final byte[] PACK_MAGIC = { (byte) 0xc7, 'G', 'L', 'P', 1 };
+
+    static final byte[] INDEX_MAGIC = { (byte) 0xc7, 'G', 'L', 'I', 1 };
+
+    /** Type of an entry holding a whole object. */
+    static final byte FULL = 0;
+
+    /** Type of an entry holding a delta against another object. */
+    static final byte DELTA = 1;
+
+    /** The longest chain of deltas allowed, which bounds the work needed
+     *  to rebuild any object. */
+    static final int MAX_DEPTH = 10;
+
+    /** Length of the raw bytes of a UID. */
+    static final int HASH_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** Length of an index entry. */
+    private static final int INDEX_ENTRY = HASH_LENGTH + 8;
+
+    /** Position of the fanout table in the index file. */
+    private static final int FANOUT = INDEX_MAGIC.length + 4;
+
+    /** Position of the first entry in the index file. */
+    private static final int ENTRIES = FANOUT + 256 * 4;
+
+    /** Length of the header of a pack entry. */
+    private static final int ENTRY_HEADER = 1 + 4;
+
+    /** Files are mapped in segments of this many bytes, since a single
+     *  MappedByteBuffer cannot exceed 2 GiB. */
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    /** An object of the index: its UID and the offset of its entry. */
+    private static class IndexEntry {
+        private final String uid;
+        private final long offset;
+
+        IndexEntry(String uid, long offset) {
+            this.uid = uid;
+            this.offset = offset;
+        }
+    }
+
+    private final MappedByteBuffer index;
+    private final MappedByteBuffer[] segments;
+    private final int count;
+
+    /** The pack read from PACKFILE with the index INDEXFILE. */
+    Pack(File packFile, File indexFile) throws IOException {
+        try (FileChannel in = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            index = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        }
+        for (int i = 0; i < INDEX_MAGIC.length; i += 1) {
+            if (index.get(i) != INDEX_MAGIC[i]) {
+                throw new IOException("not a pack index: " + indexFile);
+            }
+        }
+        count = index.getInt(INDEX_MAGIC.length);
+        try (FileChannel in = FileChannel.open(packFile.toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i += 1) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = in.map(FileChannel.MapMode.READ_ONLY, start,
+                                     Math.min(SEGMENT_SIZE, size - start));
+            }
+        }
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the UID of the Ith object in UID order. */
+    String uid(int i) {
+        byte[] hash = new byte[HASH_LENGTH];
+        index.duplicate().position(ENTRIES + i * INDEX_ENTRY).get(hash);
+        return Utils.bytesToUID(hash, 0);
+    }
+
+    /** Returns the offset of the entry of the Ith object in UID order. */
+    long offset(int i) {
+        return index.getLong(ENTRIES + i * INDEX_ENTRY + HASH_LENGTH);
+    }
+
+    /** Returns the position in UID order of the object UID, or -1 if it is
+     *  not in this pack. */
+    int find(String uid) {
+        if (!Utils.isUID(uid)) {
+            return -1;
+        }
+        byte[] key = Utils.uidToBytes(uid);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt(FANOUT + (first - 1) * 4);
+        int hi = index.getInt(FANOUT + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(key, ENTRIES + mid * INDEX_ENTRY);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                hi = mid - 1;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the type of the entry at OFFSET. */
+    byte type(long offset) {
+        return read(offset, 1)[0];
+    }
+
+    /** Returns the number of deltas that must be applied to rebuild the
+     *  Ith object in UID order. */
+    int depth(int i) {
+        long offset = offset(i);
+        if (type(offset) == FULL) {
+            return 0;
+        }
+        return read(offset + ENTRY_HEADER + HASH_LENGTH, 1)[0];
+    }
+
+    /** Returns the payload of the entry at OFFSET. */
+    byte[] payload(long offset) {
+        int length = ByteBuffer.wrap(read(offset + 1, 4)).getInt();
+        return read(offset + ENTRY_HEADER, length);
+    }
+
+    /** Returns the payload of the entry at OFFSET as a read-only buffer
+     *  over the mapped pack, without copying it, unless it straddles two
+     *  segments. */
+    ByteBuffer payloadBuffer(long offset) {
+        int length = ByteBuffer.wrap(read(offset + 1, 4)).getInt();
+        long start = offset + ENTRY_HEADER;
+        int position = (int) (start % SEGMENT_SIZE);
+        if (position + (long) length > SEGMENT_SIZE) {
+            return ByteBuffer.wrap(read(start, length));
+        }
+        ByteBuffer segment = segments[(int) (start / SEGMENT_SIZE)].asReadOnlyBuffer();
+        segment.position(position).limit(position + length);
+        return segment.slice();
+    }
+
+    /** Compare KEY with the raw UID at POSITION in the index. */
+    private int compare(byte[] key, int position) {
+        for (int i = 0; i < HASH_LENGTH; i += 1) {
+            int cmp = Integer.compare(key[i] & 0xff, index.get(position + i) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the LENGTH bytes of the pack starting at POSITION. */
+    private byte[] read(long position, int length) {
+        byte[] result = new byte[length];
+        int done = 0;
+        while (done < length) {
+            ByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)].duplicate();
+            segment.position((int) (position % SEGMENT_SIZE));
+            int n = Math.min(length - done, segment.remaining());
+            segment.get(result, done, n);
+            done += n;
+            position += n;
+        }
+        return result;
+    }
+
+    /** Append the loose objects UIDS of STORE to PACKFILE, creating it if
+     *  needed, and rewrite INDEXFILE to cover both the objects already in
+     *  OLD (which may be null) and the new ones.  The pack is forced to disk
+     *  before the new index replaces the old one, so a crash leaves at worst
+     *  some unindexed bytes at the end of the pack.
+     *
+     *  An object with an entry in BASES is stored as a delta against the
+     *  first of those bases that is already packed, either in OLD or earlier
+     *  in UIDS, if the chain stays within MAX_DEPTH and the delta is less
+     *  than half the size of the object. */
+    static void append(File packFile, File indexFile, Pack old, ObjectStore store,
+                       List<String> uids, Map<String, List<String>> bases)
+        throws IOException {
+        Map<String, Integer> depths = new HashMap<String, Integer>();
+        List<IndexEntry> entries = new ArrayList<IndexEntry>();
+        if (old != null) {
+            for (int i = 0; i < old.size(); i += 1) {
+                entries.add(new IndexEntry(old.uid(i), old.offset(i)));
+            }
+        }
+        try (FileChannel out = FileChannel.open(packFile.toPath(), StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE)) {
+            long position = out.size();
+            if (position == 0) {
+                out.write(ByteBuffer.wrap(PACK_MAGIC));
+                position = PACK_MAGIC.length;
+            }
+            out.position(position);
+            for (String uid : uids) {
+                byte type = FULL;
+                byte[] payload = Files.readAllBytes(store.file(uid).toPath());
+                depths.put(uid, 0);
+                for (String base : bases.getOrDefault(uid, Collections.emptyList())) {
+                    Integer depth = depths.get(base);
+                    if (depth == null && old != null && old.find(base) >= 0) {
+                        depth = old.depth(old.find(base));
+                    }
+                    if (depth == null || depth >= MAX_DEPTH) {
+                        continue;
+                    }
+                    byte[] delta = ObjectStore.encode(
+                            Delta.encode(store.read(base), store.read(uid)));
+                    if (HASH_LENGTH + 1 + delta.length < payload.length / 2) {
+                        type = DELTA;
+                        payload = ByteBuffer.allocate(HASH_LENGTH + 1 + delta.length)
+                            .put(Utils.uidToBytes(base)).put((byte) (depth + 1))
+                            .put(delta).array();
+                        depths.put(uid, depth + 1);
+                        break;
+                    }
+                }
+                ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER);
+                header.put(type).putInt(payload.length).flip();
+                out.write(header);
+                out.write(ByteBuffer.wrap(payload));
+                entries.add(new IndexEntry(uid, position));
+                position += ENTRY_HEADER + payload.length;
+            }
+            out.force(true);
+        }
+        writeIndex(indexFile, entries);
+    }
+
+    /** Write the index of ENTRIES to INDEXFILE, replacing it atomically. */
+    private static void writeIndex(File indexFile, List<IndexEntry> entries) throws IOException {
+        entries.sort(Comparator.comparing(entry -> entry.uid));
+        int[] fanout = new int[256];
+        for (IndexEntry entry : entries) {
+            fanout[Integer.parseInt(entry.uid.substring(0, 2), 16)] += 1;
+        }
+        for (int i = 1; i < fanout.length; i += 1) {
+            fanout[i] += fanout[i - 1];
+        }
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(file, Utils.BUFFER_SIZE))) {
+            out.write(INDEX_MAGIC);
+            out.writeInt(entries.size());
+            for (int n : fanout) {
+                out.writeInt(n);
+            }
+            for (IndexEntry entry : entries) {
+                out.write(Utils.uidToBytes(entry.uid));
+                out.writeLong(entry.offset);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+    }
+
+}
@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/** The reachability bitmaps of the branch heads: for each head, the set of
+ *  commit graph indices of the head and all its ancestors, as a Bitmap.
+ *  With them, asking whether a commit is an ancestor of a head, or how many
+ *  commits a branch has, is a lookup rather than a walk of the history.
+ *
+ *  The bitmaps are kept in the file bitmaps, which is MAGIC, the stamp of
+ *  the commit graph they index, the number of bitmaps, and for each the
+ *  raw UID of its head followed by the bitmap.  When a branch moves to a
+ *  new commit, the bitmap of that commit is the union of those of its
+ *  parents, if they have them, with the commit itself, so a commit costs
+ *  no walk at all.  Bitmaps made against another graph file are dropped,
+ *  and a commit without a bitmap falls back to a walk of its history. */
+class Reachability {
+
+    static final byte[] MAGIC = { (byte) 0xc7, 'G', 'L', 'B', 1 };
+
+    static String bitmapFile = Utils.join(Main.gitletDirectory, "bitmaps").getPath();
+
+    private final CommitGraph graph;
+
+    /** The stored bitmaps, by the UID of their head. */
+    private final HashMap<String, Bitmap> bitmaps = new HashMap<String, Bitmap>();
+
+    /** The stored bitmaps of the commit graph of this repository. */
+    Reachability() {
+        this(CommitGraph.get(), new File(bitmapFile));
+    }
+
+    /** The bitmaps stored in FILE for GRAPH, if any. */
+    Reachability(CommitGraph graph, File file) {
+        this.graph = graph;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), Utils.BUFFER_SIZE))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i += 1) {
+                if (magic[i] != MAGIC[i]) {
+                    throw new IllegalArgumentException("not a bitmap file: " + file);
+                }
+            }
+            if (in.readInt() != graph.stamp()) {
+                return;
+            }
+            int n = in.readInt();
+            byte[] hash = new byte[Utils.UID_LENGTH / 2];
+            for (int i = 0; i < n; i += 1) {
+                in.readFully(hash);
+                bitmaps.put(Utils.bytesToUID(hash, 0), Bitmap.read(in));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the set of graph indices of the commit UID and all its
+     *  ancestors. */
+    Bitmap reachable(String uid) {
+        Bitmap stored = bitmaps.get(uid);
+        if (stored != null) {
+            return stored;
+        }
+        return compute(graph.indexOf(uid));
+    }
+
+    /** Returns true iff the commit ANCESTOR is the commit DESCENDANT or one
+     *  of its ancestors. */
+    boolean isAncestor(String ancestor, String descendant) {
+        return reachable(descendant).contains(graph.indexOf(ancestor));
+    }
+
+    /** Keep exactly the bitmaps of the commits HEADS, computing those that
+     *  are missing, and write them to FILE if they changed. */
+    void refresh(Collection<String> heads, File file) {
+        HashMap<String, Bitmap> kept = new HashMap<String, Bitmap>();
+        for (String uid : heads) {
+            if (uid == null || uid.isEmpty() || kept.containsKey(uid)) {
+                continue;
+            }
+            Bitmap bitmap = bitmaps.get(uid);
+            if (bitmap == null) {
+                bitmap = compute(graph.indexOf(uid));
+            }
+            kept.put(uid, bitmap);
+        }
+        if (kept.equals(bitmaps)) {
+            return;
+        }
+        bitmaps.clear();
+        bitmaps.putAll(kept);
+        write(file);
+    }
+
+    /** Keep exactly the bitmaps of the commits HEADS in this repository. */
+    void refresh(Collection<String> heads) {
+        refresh(heads, new File(bitmapFile));
+    }
+
+    /** Returns the indices of commit INDEX and its ancestors, as the union
+     *  of the stored bitmaps of its parents where there are some. */
+    private Bitmap compute(int index) {
+        Bitmap result = Bitmap.of(new BitSet());
+        if (index == CommitGraph.NONE) {
+            return result;
+        }
+        Traversal traversal = new Traversal(graph);
+        for (int parent : new int[] { graph.parent1(index), graph.parent2(index) }) {
+            if (parent == CommitGraph.NONE || result.contains(parent)) {
+                continue;
+            }
+            Bitmap stored = bitmaps.get(graph.uid(parent));
+            result = result.or(stored != null ? stored : Bitmap.of(traversal.ancestors(parent)));
+        }
+        return result.with(index);
+    }
+
+    /** Write the bitmaps to FILE, replacing it whole. */
+    private void write(File file) {
+        File temp = Utils.tempFile(file);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp), Utils.BUFFER_SIZE))) {
+            out.write(MAGIC);
+            out.writeInt(graph.stamp());
+            out.writeInt(bitmaps.size());
+            for (Map.Entry<String, Bitmap> entry : bitmaps.entrySet()) {
+                out.write(Utils.uidToBytes(entry.getKey()));
+                entry.getValue().write(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+}
@@ -4,13 +4,23 @@ package gitlet;
 import com.sun.tools.corba.se.idl.Util;
 
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class Repo {
     static String stagingDirectory = Utils.join(Main.gitletDirectory, "staging").getPath();
 
-    /** Maps the name of the branch (String) to the UID of the Head Commit of the branch (String) */
+    /** Maps the name of the branch (String) to the UID of the Head Commit of the branch (String).
+     *  Like the rest of the state below, read on first use, by branchMap(). */
     private HashMap<String, String> branchMap;
 
     /** Name of the current Branch */
@@ -22,48 +32,210 @@ public class Repo {
     /** Set of names of files staged for removal */
     private HashSet<String> removeSet;
 
+    /** The changes to the state above since its checkpoint files. */
+    private final Journal journal;
 
+    /** The state above as of the last save, to tell what a save changes. */
+    private HashMap<String, String> savedBranchMap;
+    private String savedHead;
+    private HashMap<String, String> savedAddMap;
+    private HashSet<String> savedRemoveSet;
+
+    /** The changes saved by this command, journaled together by flush. */
+    private final List<Journal.Op> pending = new ArrayList<Journal.Op>();
+
+    /** The branch map as read, which the branches this command moves must
+     *  still match when it is journaled. */
+    private HashMap<String, String> readBranchMap;
+
+    /** The repository in the current directory.  Nothing is read until a
+     *  command needs it, so that commands such as branch do not pay for
+     *  deserializing the staging area, and saveAll writes back only what
+     *  was read.  The journal is read, and recovered from a crash, at
+     *  once. */
     public Repo() {
          if (!Main.isInitialised()) {
-             Utils.message("Not in an initialized Gitlet directory.");
-             System.exit(0);
+             throw Utils.error("Not in an initialized Gitlet directory.");
          }
+         journal = new Journal();
+     }
+
+    private HashMap<String, String> branchMap() {
+        if (branchMap == null) {
+            branchMap = journal.load(Utils.join(Main.gitletDirectory, "branchMap.data"),
+                    HashMap.class);
+            journal.applyToBranches(branchMap);
+            savedBranchMap = new HashMap<String, String>(branchMap);
+            readBranchMap = savedBranchMap;
+        }
+        return branchMap;
+    }
 
-         head = Utils.readObject(Utils.join(Main.gitletDirectory, "head.data"),
-                 String.class);
-         branchMap = Utils.readObject(Utils.join(Main.gitletDirectory, "branchMap.data"),
-                 HashMap.class);
-         addMap = Utils.readObject(Utils.join(stagingDirectory, "addMap.data"),
-                 HashMap.class);
-         removeSet = Utils.readObject(Utils.join(stagingDirectory, "removeSet.data"),
-                 HashSet.class);
+    private String head() {
+        if (head == null) {
+            head = journal.head(journal.load(Utils.join(Main.gitletDirectory, "head.data"),
+                    String.class));
+            savedHead = head;
+        }
+        return head;
+    }
 
-     }
+    private HashMap<String, String> addMap() {
+        if (addMap == null) {
+            addMap = journal.load(Utils.join(stagingDirectory, "addMap.data"),
+                    HashMap.class);
+            journal.applyToStaged(addMap);
+            savedAddMap = new HashMap<String, String>(addMap);
+        }
+        return addMap;
+    }
 
-    public void add(String fileName) {
+    private HashSet<String> removeSet() {
+        if (removeSet == null) {
+            removeSet = journal.load(Utils.join(stagingDirectory, "removeSet.data"),
+                    HashSet.class);
+            journal.applyToRemoved(removeSet);
+            savedRemoveSet = new HashSet<String>(removeSet);
+        }
+        return removeSet;
+    }
 
-         File file = Utils.join(Main.workingDirectory, fileName);
-         if (file.exists() && !file.isDirectory()) {
-             Blob blob = new Blob(file);
-             Commit currentCommit = Commit.fromUID(getCommitID(head));
-             if (!currentCommit.fileEqualInCommit(fileName, blob.getUID())) {
-                 if (addMap.containsKey(fileName)) {
-                     Blob.deleteBlob(addMap.get(fileName));
+    /** Stage the files named by FILENAMES: each a file, a directory, whose
+     *  files are all staged, or a glob pattern relative to the working
+     *  directory, such as "*.txt" or "src/**.java".  The head commit is
+     *  read, the files hashed and the staging area written once for the
+     *  whole lot.  Nothing is staged if any name matches no file. */
+    public void add(String... fileNames) {
+         TreeMap<String, File> files = new TreeMap<String, File>();
+         for (String fileName : fileNames) {
+             if (!collectFiles(fileName, files)) {
+                 Utils.message("File does not exist.");
+                 return;
+             }
+         }
+         Commit currentCommit = Commit.fromUID(getCommitID(head()));
+         StatCache statCache = new StatCache();
+         Map<String, String> uids = statCache.uids(files);
+         statCache.save();
+         HashSet<String> replaced = new HashSet<String>();
+         for (Map.Entry<String, File> file : files.entrySet()) {
+             String fileName = file.getKey();
+             String uid = uids.get(fileName);
+             if (!currentCommit.fileEqualInCommit(fileName, uid)) {
+                 String staged = addMap().get(fileName);
+                 if (!uid.equals(staged)) {
+                     if (staged != null) {
+                         replaced.add(staged);
+                     }
+                     addMap().put(fileName, new Blob(file.getValue(), uid).serialize());
                  }
-                 addMap.put(fileName, blob.serialize());
              } else {
-                 addMap.remove(fileName);
-                 removeSet.remove(fileName);
-                 saveRemoveSet();
+                 addMap().remove(fileName);
+                 removeSet().remove(fileName);
              }
-             saveAddMap();
-         } else {
-             Utils.message("File does not exist.");
          }
+         replaced.removeAll(addMap().values());
+         for (String uid : replaced) {
+             Blob.deleteBlob(uid);
+         }
+         saveAddMap();
+         saveRemoveSet();
      }
 
+    /** Add to FILES the tracked path and working file of each file named by
+     *  FILENAME, as described for add.  Files in directories and matched by
+     *  patterns are left out if .gitletignore ignores them.  Returns false
+     *  if FILENAME names no file. */
+    private static boolean collectFiles(String fileName, Map<String, File> files) {
+        File file = Utils.join(Main.workingDirectory, fileName);
+        WorkingTree workingTree = new WorkingTree();
+        if (file.isFile()) {
+            files.put(trackedPath(fileName), file);
+            return true;
+        } else if (file.isDirectory()) {
+            if (!file.toPath().toAbsolutePath().normalize()
+                    .startsWith(Paths.get(Main.workingDirectory).toAbsolutePath().normalize())) {
+                return false;
+            }
+            files.putAll(workingTree.files(file, null));
+            return true;
+        } else if (fileName.matches(".*[*?\\[{].*")) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + fileName);
+            Map<String, File> matched = workingTree.files(new File(Main.workingDirectory), matcher);
+            files.putAll(matched);
+            return !matched.isEmpty();
+        }
+        return false;
+    }
+
+    /** Replace the working files of the commit FROM with those of the
+     *  commit TO, touching only the paths whose blobs differ between them;
+     *  files that are the same in both are left alone.  Returns false,
+     *  changing nothing, if an untracked file is in the way. */
+    private static boolean switchFiles(Commit from, Commit to) {
+        TreeMap<String, String> changes = Tree.diff(from.getTreeUID(), to.getTreeUID());
+        HashSet<String> incoming = new HashSet<String>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() != null) {
+                incoming.add(change.getKey());
+            }
+        }
+        if (untrackedInTheWay(incoming, from::filePresentInCommit)) {
+            return false;
+        }
+        Checkout.apply(changes);
+        return true;
+    }
+
+    /** Returns true iff checking out the tracked paths INCOMING, when the
+     *  head commit tracks the paths for which TRACKED is true, would
+     *  overwrite or displace an untracked file, printing the error message
+     *  if so. */
+    private static boolean untrackedInTheWay(Set<String> incoming, Predicate<String> tracked) {
+        WorkingTree workingTree = new WorkingTree();
+        for (String fileName : incoming) {
+            if (workingTree.occupied(fileName, tracked)) {
+                Utils.message("There is an untracked file in the way; delete it, or add and commit it first.");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns FILENAME as the path under which a commit tracks it: relative
+     *  to the working directory, normalized, and separated by '/'.  A name
+     *  outside the working directory, or inside .gitlet, is returned as
+     *  given, so that no file matches it. */
+    private static String trackedPath(String fileName) {
+        Path root = Paths.get(Main.workingDirectory).toAbsolutePath().normalize();
+        Path path = root.resolve(fileName).normalize();
+        if (!path.startsWith(root) || path.equals(root)
+            || path.startsWith(root.resolve(".gitlet"))) {
+            return fileName;
+        }
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /** Delete the working file FILENAME, a tracked path, together with any
+     *  of its directories that this leaves empty. */
+    static void deleteWorkingFile(String fileName) {
+        if (fileName.indexOf('/') < 0) {
+            Utils.restrictedDelete(Utils.join(Main.workingDirectory, fileName));
+            return;
+        }
+        File file = Utils.join(Main.workingDirectory, fileName);
+        if (!file.isDirectory()) {
+            file.delete();
+        }
+        File root = new File(Main.workingDirectory).getAbsoluteFile();
+        File dir = file.getAbsoluteFile().getParentFile();
+        while (dir != null && !dir.equals(root) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
     public void commit(String logMessage) {
-        if (this.addMap.isEmpty() && this.removeSet.isEmpty()) {
+        if (addMap().isEmpty() && removeSet().isEmpty()) {
             Utils.message("No changes added to the commit.");
             return;
         }
@@ -71,30 +243,33 @@ public class Repo {
             Utils.message("Please enter a commit message.");
             return;
         }
-        Commit newCommit = new Commit(logMessage, getCommitID(head));;
-        branchMap.put(head, newCommit.commit(addMap, removeSet));
-        addMap.clear();
-        removeSet.clear();
+        Commit newCommit = new Commit(logMessage, getCommitID(head()));;
+        branchMap().put(head(), newCommit.commit(addMap(), removeSet()));
+        addMap().clear();
+        removeSet().clear();
         saveAll();
+        new MessageIndex().update();
      }
 
      private void commitMerge(String logMessage, String commitUID1, String commitUID2) {
          Commit newCommit = new Commit(logMessage, commitUID1, commitUID2);;
-         branchMap.put(head, newCommit.commit(addMap, removeSet));
-         addMap.clear();
-         removeSet.clear();
+         branchMap().put(head(), newCommit.commit(addMap(), removeSet()));
+         addMap().clear();
+         removeSet().clear();
          saveAll();
+         new MessageIndex().update();
      }
 
     public void remove(String fileName) {
-         if (addMap.containsKey(fileName)) {
-             Blob.deleteBlob(addMap.remove(fileName));
+         fileName = trackedPath(fileName);
+         if (addMap().containsKey(fileName)) {
+             Blob.deleteBlob(addMap().remove(fileName));
              saveAddMap();
          } else {
-             Commit currentCommit = Commit.fromUID(getCommitID(head));
+             Commit currentCommit = Commit.fromUID(getCommitID(head()));
              if (currentCommit.filePresentInCommit(fileName)) {
-                 removeSet.add(fileName);
-                 Utils.restrictedDelete(Utils.join(Main.workingDirectory, fileName));
+                 removeSet().add(fileName);
+                 deleteWorkingFile(fileName);
                  saveRemoveSet();
              } else {
                  Utils.message("No reason to remove the file.");
@@ -102,143 +277,165 @@ public class Repo {
          }
      }
 
-    public void log() {
-        Commit currentCommit = Commit.fromUID(getCommitID(head));
-        Utils.message(currentCommit.toString());
-        while (currentCommit.getParentUID() != null && !currentCommit.getParentUID().isEmpty()) {
-            currentCommit = Commit.fromUID(currentCommit.getParentUID());
-            Utils.message("");
-            Utils.message(currentCommit.toString());
+    /** Print the first LIMIT commits of the first-parent history of the
+     *  head commit, each as it is read. */
+    public void log(int limit) {
+        PrintWriter out = Utils.output();
+        String commitUID = getCommitID(head());
+        for (int i = 0; i < limit && commitUID != null && !commitUID.isEmpty(); i += 1) {
+            Commit currentCommit = Commit.fromUID(commitUID);
+            out.println(currentCommit);
+            out.println();
+            commitUID = currentCommit.getParentUID();
         }
-        Utils.message("");
+        out.flush();
     }
 
-    public void globalLog() {
-         File commitDir = new File(Commit.commitDirectory);
-         if (commitDir.listFiles().length == 0) {
-             return;
-         }
-         String message = "";
-         for (File commit : commitDir.listFiles()) {
-             message += Utils.readObject(commit, Commit.class).toString() + "\n\n";
-         }
-
-         Utils.message(message.strip() + "\n");
+    /** Print LIMIT of the commits ever made, in no particular order, each
+     *  as it is read. */
+    public void globalLog(int limit) {
+        PrintWriter out = Utils.output();
+        Commit.store.uids().limit(limit).forEach(commitUID -> {
+            out.println(Commit.fromUID(commitUID));
+            out.println();
+        });
+        out.flush();
     }
 
+    /** Print the UIDs of the commits whose message is LOGMESSAGE, found
+     *  with one lookup in the MessageIndex. */
     public void find(String logMessage) {
-        File commitDir = new File(Commit.commitDirectory);
-        ArrayList<String> list = new ArrayList<String>();
-        String message = "";
-        for (File commit : commitDir.listFiles()) {
-            Commit c = Utils.readObject(commit, Commit.class);
-            if (logMessage.equals(c.logMessage)) {
-                list.add(c.UID);
-            }
+        printFound(new MessageIndex().find(logMessage));
+    }
+
+    /** Print the UIDs of the commits with a message in which the regular
+     *  expression REGEX matches, found with one pass over the message
+     *  table of the MessageIndex. */
+    public void findMatching(String regex) {
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException excp) {
+            throw Utils.error("Invalid pattern.");
         }
-        if (list.isEmpty()) {
-            message = "Found no commit with that message.";
-        } else {
-            for (String UID : list) {
-                message += UID + "\n";
-            }
+        printFound(new MessageIndex().search(message -> pattern.matcher(message).find()));
+    }
+
+    private void printFound(List<String> commitUIDs) {
+        PrintWriter out = Utils.output();
+        for (String commitUID : commitUIDs) {
+            out.println(commitUID);
+        }
+        if (commitUIDs.isEmpty()) {
+            out.println("Found no commit with that message.");
         }
-        Utils.message(message.strip());
+        out.flush();
     }
 
     public void status() {
-
-         String branchMessage = "=== Branches ===\n";
-
-         for (String branchName : getSortedSet(branchMap.keySet())) {
-             if (branchName.equals(head)) {
-                 branchMessage += "*" + branchName + "\n";
+         PrintWriter out = Utils.output();
+         out.println("=== Branches ===");
+         for (String branchName : getSortedSet(branchMap().keySet())) {
+             if (branchName.equals(head())) {
+                 out.println("*" + branchName);
              } else {
-                 branchMessage += branchName + "\n";
+                 out.println(branchName);
              }
          }
 
-         String stagedMessage = "=== Staged Files ===" + "\n";
-         for (String fileName : getSortedSet(addMap.keySet())) {
-             stagedMessage += fileName + "\n";
+         out.println();
+         out.println("=== Staged Files ===");
+         for (String fileName : getSortedSet(addMap().keySet())) {
+             out.println(fileName);
          }
 
-         String removedMessage = "=== Removed Files ===\n";
-         for (String fileName : getSortedSet(removeSet)) {
-             removedMessage += fileName + "\n";
+         out.println();
+         out.println("=== Removed Files ===");
+         for (String fileName : getSortedSet(removeSet())) {
+             out.println(fileName);
          }
 
          List<String> modificationsList = new ArrayList<String>();
-         String modifications = "=== Modifications Not Staged For Commit ===\n";
-         Commit currentCommit = Commit.fromUID(getCommitID(head));
+         Commit currentCommit = Commit.fromUID(getCommitID(head()));
          HashMap<String, String> blobMap = currentCommit.getBlobMap();
-         for (String fileName : blobMap.keySet()) {
+         HashSet<String> tracked = new HashSet<String>(blobMap.keySet());
+         tracked.addAll(addMap().keySet());
+         HashMap<String, File> present = new HashMap<String, File>();
+         for (String fileName : tracked) {
              File file = Utils.join(Main.workingDirectory, fileName);
-             if (!file.exists()) {
-                 if (!removeSet.contains(fileName)) {
-                     modificationsList.add(fileName + " (deleted)\n");
+             if (file.exists()) {
+                 present.put(fileName, file);
+             }
+         }
+         StatCache statCache = new StatCache();
+         Map<String, String> workingUIDs = statCache.uids(present);
+         statCache.retain(tracked);
+         statCache.save();
+         for (String fileName : blobMap.keySet()) {
+             if (!present.containsKey(fileName)) {
+                 if (!removeSet().contains(fileName)) {
+                     modificationsList.add(fileName + " (deleted)");
                  }
              } else {
-                 Blob fileBlob = new Blob(file);
-                 if (!fileBlob.getUID().equals(blobMap.get(fileName))) {
-                     if (!addMap.containsKey(fileName)) {
-                         modificationsList.add(fileName + " (modified)\n");
+                 if (!workingUIDs.get(fileName).equals(blobMap.get(fileName))) {
+                     if (!addMap().containsKey(fileName)) {
+                         modificationsList.add(fileName + " (modified)");
                      }
                  }
              }
          }
-         for (String fileName : addMap.keySet()) {
-             File file = Utils.join(Main.workingDirectory, fileName);
-             if (!file.exists()) {
-                 modificationsList.add(fileName + " (deleted)\n");
+         for (String fileName : addMap().keySet()) {
+             if (!present.containsKey(fileName)) {
+                 modificationsList.add(fileName + " (deleted)");
              } else {
-                 Blob fileBlob = new Blob(file);
-                 if (!fileBlob.getUID().equals(addMap.get(fileName))) {
-                     modificationsList.add(fileName + " (modified)\n");
+                 if (!workingUIDs.get(fileName).equals(addMap().get(fileName))) {
+                     modificationsList.add(fileName + " (modified)");
                  }
              }
          }
          Collections.sort(modificationsList);
+         out.println();
+         out.println("=== Modifications Not Staged For Commit ===");
          for (String mod : modificationsList) {
-            modifications += mod;
+             out.println(mod);
          }
 
-         List<String> untrackList = new ArrayList<String>();
-         String untracked = "=== Untracked Files ===\n";
-         for (File file : new File(Main.workingDirectory).listFiles()) {
-             if (!file.isDirectory()) {
-                 if ((!blobMap.containsKey(file.getName())
-                  && !addMap.containsKey(file.getName()))
-                  || removeSet.contains(file.getName())) {
-                     untrackList.add(file.getName() + "\n");
-                 }
+         out.println();
+         out.println("=== Untracked Files ===");
+         for (String fileName : new WorkingTree().files().keySet()) {
+             if ((!blobMap.containsKey(fileName) && !addMap().containsKey(fileName))
+                 || removeSet().contains(fileName)) {
+                 out.println(fileName);
              }
          }
-         Collections.sort(untrackList);
-         for (String s : untrackList) {
-             untracked += s;
-         }
-
-         Utils.message(branchMessage.strip() + "\n\n"
-                            + stagedMessage.strip() + "\n\n"
-                            + removedMessage.strip() + "\n\n"
-                            + modifications.strip() + "\n\n"
-                            + untracked.strip());
+         out.flush();
+    }
 
+    /** Print how much space content-defined chunking saves: the total size
+     *  of all stored file versions against the size of their chunks. */
+    public void storageStatus() {
+        long[] stats = Blob.storageStats();
+        long logical = stats[0];
+        long stored = stats[1];
+        double ratio = stored == 0 ? 1.0 : (double) logical / stored;
+        Utils.message("\n=== Storage ===\n"
+                + "Logical bytes: %d\n"
+                + "Stored bytes: %d\n"
+                + "Dedup ratio: %.2f\n"
+                + "Bytes saved: %d", logical, stored, ratio, logical - stored);
     }
 
     public void checkout(String commitUID, String fileName) {
-         if(commitUID.length() < 40) {
-            commitUID = estimateCommitUID(commitUID);
-         }
+         commitUID = estimateCommitUID(commitUID);
          Commit commit = Commit.fromUID(commitUID);
+         fileName = trackedPath(fileName);
          if (commit.filePresentInCommit(fileName)) {
-             if (addMap.containsKey(fileName)) {
-                 addMap.remove(fileName);
+             if (addMap().containsKey(fileName)) {
+                 addMap().remove(fileName);
                  saveAddMap();
              }
-             if (removeSet.contains(fileName)) {
-                 removeSet.remove(fileName);
+             if (removeSet().contains(fileName)) {
+                 removeSet().remove(fileName);
                  saveRemoveSet();
              }
              commit.restoreFile(fileName);
@@ -248,34 +445,20 @@ public class Repo {
     }
 
     public void checkout(String branchName) {
-         if (branchName.equals(head)) {
+         if (branchName.equals(head())) {
              Utils.message("No need to checkout the current branch.");
              return;
          }
          String commitID = getCommitID(branchName);
          if (!commitID.isEmpty()) {
              Commit newCommit = Commit.fromUID(commitID);
-             Commit currentCommit = Commit.fromUID(getCommitID(head));
-
-             HashMap<String, String> newBlobsMap = newCommit.getBlobMap();
-             HashMap<String, String> currentBlobsMap = currentCommit.getBlobMap();
-
-             for (String fileName : newBlobsMap.keySet()) {
-                 if (Utils.join(Main.workingDirectory, fileName).exists() && !currentBlobsMap.containsKey(fileName)) {
-                     Utils.message("There is an untracked file in the way; delete it, or add and commit it first.");
-                     return;
-                 }
-             }
-
-             for (String fileName : currentBlobsMap.keySet()) {
-                 Utils.restrictedDelete(Utils.join(Main.workingDirectory, fileName));
-             }
-             for (String fileName : newBlobsMap.keySet()) {
-                 newCommit.restoreFile(fileName);
+             Commit currentCommit = Commit.fromUID(getCommitID(head()));
+             if (!switchFiles(currentCommit, newCommit)) {
+                 return;
              }
              head = branchName;
-             addMap.clear();
-             removeSet.clear();
+             addMap().clear();
+             removeSet().clear();
              saveRemoveSet();
              saveAddMap();
              saveHead();
@@ -283,20 +466,20 @@ public class Repo {
     }
 
     public void branch(String branchName) {
-         if (branchMap.containsKey(branchName)) {
+         if (branchMap().containsKey(branchName)) {
              Utils.message("A branch with that name already exists.");
              return;
          } else {
-             branchMap.put(branchName, getCommitID(head));
+             branchMap().put(branchName, getCommitID(head()));
              saveBranchMap();
          }
     }
 
     public void removeBranch (String branchName) {
-         if (branchName.equals(head)) {
+         if (branchName.equals(head())) {
              Utils.message("Cannot remove the current branch.");
-         } else if (branchMap.containsKey(branchName)) {
-             branchMap.remove(branchName);
+         } else if (branchMap().containsKey(branchName)) {
+             branchMap().remove(branchName);
              saveBranchMap();
          } else {
              Utils.message("A branch with that name does not exist.");
@@ -304,31 +487,15 @@ public class Repo {
     }
 
     public void reset(String commitID) {
-        if(commitID.length() < 40) {
-            commitID = estimateCommitUID(commitID);
-        }
+        commitID = estimateCommitUID(commitID);
         Commit newCommit = Commit.fromUID(commitID);
-        Commit currentCommit = Commit.fromUID(getCommitID(head));
-
-        HashMap<String, String> newBlobsMap = newCommit.getBlobMap();
-        HashMap<String, String> currentBlobsMap = currentCommit.getBlobMap();
-
-        for (String fileName : newBlobsMap.keySet()) {
-            if (Utils.join(Main.workingDirectory, fileName).exists() && !currentBlobsMap.containsKey(fileName)) {
-                Utils.message("There is an untracked file in the way; delete it, or add and commit it first.");
-                return;
-            }
-        }
-
-        for (String fileName : currentBlobsMap.keySet()) {
-            Utils.restrictedDelete(Utils.join(Main.workingDirectory, fileName));
-        }
-        for (String fileName : newBlobsMap.keySet()) {
-            newCommit.restoreFile(fileName);
+        Commit currentCommit = Commit.fromUID(getCommitID(head()));
+        if (!switchFiles(currentCommit, newCommit)) {
+            return;
         }
-        branchMap.put(head, commitID);
-        addMap.clear();
-        removeSet.clear();
+        branchMap().put(head(), commitID);
+        addMap().clear();
+        removeSet().clear();
         saveRemoveSet();
         saveAddMap();
         saveBranchMap();
@@ -340,7 +507,7 @@ public class Repo {
             Utils.message("Cannot merge a branch with itself.");
             return;
         }
-        if (!branchMap.containsKey(branchName)) {
+        if (!branchMap().containsKey(branchName)) {
             Utils.message("A branch with that name does not exist.");
             return;
         }
@@ -351,7 +518,7 @@ public class Repo {
             return;
         }
 
-        if (!addMap.isEmpty() || !removeSet.isEmpty()) {
+        if (!addMap().isEmpty() || !removeSet().isEmpty()) {
             Utils.message("You have uncommitted changes.");
             return;
         }
@@ -369,12 +536,9 @@ public class Repo {
             Commit givenCommit = Commit.fromUID(commitUID);
             Commit commonAncestor = Commit.fromUID(findCommonAncestor(commitUID));
 
-            for (String fileName : givenCommit.getBlobMap().keySet()) {
-                if (Utils.join(Main.workingDirectory, fileName).exists()
-                        && !headCommit.getBlobMap().containsKey(fileName)) {
-                    Utils.message("There is an untracked file in the way; delete it, or add and commit it first.");
-                    return;
-                }
+            if (untrackedInTheWay(givenCommit.getBlobMap().keySet(),
+                                  headCommit.getBlobMap().keySet()::contains)) {
+                return;
             }
             HashMap<String, String> ancestorBlobMap = commonAncestor.getBlobMap();
             HashMap<String, String> currentBlobMap = headCommit.getBlobMap();
@@ -418,13 +582,104 @@ public class Repo {
                 }
             }
 
-            commitMerge("Merged " + branchName + " into " + head + ".",
+            commitMerge("Merged " + branchName + " into " + head() + ".",
                     headCommitUID, commitUID);
         }
 
     }
 
 
+    /** Print the UID of the best common ancestor of the commits REF1 and
+     *  REF2, each a branch name or a commit UID, possibly abbreviated. */
+    public void mergeBase(String ref1, String ref2) {
+        CommitGraph graph = CommitGraph.get();
+        int base = new MergeBase(graph).best(graph.indexOf(resolveCommit(ref1)),
+                                             graph.indexOf(resolveCommit(ref2)));
+        if (base == CommitGraph.NONE) {
+            Utils.message("No common ancestor.");
+        } else {
+            Utils.message(graph.uid(base));
+        }
+    }
+
+    /** Print the number of commits in the history of REF, a branch name or
+     *  a commit UID, possibly abbreviated, counting REF itself. */
+    public void countCommits(String ref) {
+        Utils.message("%d", new Reachability().reachable(resolveCommit(ref)).cardinality());
+    }
+
+    /** Pack the loose commits, trees, blob manifests and chunks into the
+     *  pack of their directory, so that each lookup is a search of a mapped
+     *  index rather than a file of its own. */
+    public void gc() {
+        Commit.store.repack();
+        Tree.store.repack();
+        Blob.blobStore.repack();
+        Blob.chunkStore.repack(deltaBases());
+    }
+
+    /** Rewrite the commits and blobs written by earlier versions of gitlet
+     *  as serialized Java objects in the current formats.  Rewritten
+     *  commits get new UIDs, so the branches are moved to them, and the
+     *  move is journaled before the old commits are deleted. */
+    public void migrate() {
+        Map<String, String> renamed = Migration.migrateCommits();
+        for (Map.Entry<String, String> branch : branchMap().entrySet()) {
+            branch.setValue(renamed.getOrDefault(branch.getValue(), branch.getValue()));
+        }
+        saveBranchMap();
+        flush();
+        Migration.dropCommits(renamed);
+        int commits = 0;
+        for (Map.Entry<String, String> commit : renamed.entrySet()) {
+            if (!commit.getKey().equals(commit.getValue())) {
+                commits += 1;
+            }
+        }
+        int blobs = Migration.migrateBlobs();
+        Utils.message("Migrated %d commits and %d blobs.", commits, blobs);
+    }
+
+    /** Returns, for the chunks of each file changed by a commit, the chunks
+     *  at the same place in the other version, to be tried as delta bases
+     *  when packing.  Commits are visited from the branch heads back, so
+     *  the chunks of newer versions come first, are packed first, and are
+     *  the ones kept whole. */
+    private LinkedHashMap<String, List<String>> deltaBases() {
+        LinkedHashMap<String, List<String>> bases = new LinkedHashMap<String, List<String>>();
+        HashSet<String> visited = new HashSet<String>();
+        Queue<String> queue = new ArrayDeque<String>(getSortedSet(new HashSet<String>(branchMap().values())));
+        while (!queue.isEmpty()) {
+            String commitUID = queue.poll();
+            if (!visited.add(commitUID)) {
+                continue;
+            }
+            Commit commit = Commit.fromUID(commitUID);
+            Commit parent = commit.getParent1();
+            if (parent == null) {
+                continue;
+            }
+            queue.add(commit.parentCommit1);
+            if (commit.getParent2() != null) {
+                queue.add(commit.parentCommit2);
+            }
+            HashMap<String, String> newer = commit.getBlobMap();
+            HashMap<String, String> older = parent.getBlobMap();
+            for (String fileName : getSortedSet(newer.keySet())) {
+                String olderUID = older.get(fileName);
+                if (olderUID == null || olderUID.equals(newer.get(fileName))) {
+                    continue;
+                }
+                for (String[] pair : Blob.alignChunks(olderUID, newer.get(fileName))) {
+                    bases.computeIfAbsent(pair[1], k -> new ArrayList<String>()).add(pair[0]);
+                    bases.computeIfAbsent(pair[0], k -> new ArrayList<String>()).add(pair[1]);
+                }
+            }
+        }
+        return bases;
+    }
+
+
      //Start Util functions
 
     private List<String> getSortedSet(Set<String> s) {
@@ -434,8 +689,8 @@ public class Repo {
     }
 
     public String getCommitID(String branchName) {
-         if (branchMap.containsKey(branchName)) {
-             return branchMap.get(branchName);
+         if (branchMap().containsKey(branchName)) {
+             return branchMap().get(branchName);
          } else {
              Utils.message("No such branch exists.");
              return "";
@@ -443,26 +698,142 @@ public class Repo {
      }
 
      public String getHead() {
-         return head;
+         return head();
      }
 
+     /* Each save adds the changes made since the last one to PENDING, as
+      * journal operations; flush writes them out. */
+
      private void saveAddMap() {
-         File addMapFile = Utils.join(stagingDirectory, "addMap.data");
-         Utils.writeObject(addMapFile, this.addMap);
+         if (addMap == null) {
+             return;
+         }
+         if (addMap.isEmpty() && !savedAddMap.isEmpty()) {
+             pending.add(new Journal.Op(Journal.CLEAR_STAGED, null, null));
+         } else {
+             for (String fileName : savedAddMap.keySet()) {
+                 if (!addMap.containsKey(fileName)) {
+                     pending.add(new Journal.Op(Journal.UNSTAGE, fileName, null));
+                 }
+             }
+             for (Map.Entry<String, String> entry : addMap.entrySet()) {
+                 if (!entry.getValue().equals(savedAddMap.get(entry.getKey()))) {
+                     pending.add(new Journal.Op(Journal.STAGE, entry.getKey(), entry.getValue()));
+                 }
+             }
+         }
+         savedAddMap = new HashMap<String, String>(addMap);
      }
 
      private void saveRemoveSet() {
-         File removeSetFile = Utils.join(stagingDirectory, "removeSet.data");
-         Utils.writeObject(removeSetFile, this.removeSet);
+         if (removeSet == null) {
+             return;
+         }
+         if (removeSet.isEmpty() && !savedRemoveSet.isEmpty()) {
+             pending.add(new Journal.Op(Journal.CLEAR_REMOVED, null, null));
+         } else {
+             for (String fileName : savedRemoveSet) {
+                 if (!removeSet.contains(fileName)) {
+                     pending.add(new Journal.Op(Journal.UNREMOVE, fileName, null));
+                 }
+             }
+             for (String fileName : removeSet) {
+                 if (!savedRemoveSet.contains(fileName)) {
+                     pending.add(new Journal.Op(Journal.REMOVE, fileName, null));
+                 }
+             }
+         }
+         savedRemoveSet = new HashSet<String>(removeSet);
      }
 
      private void saveBranchMap() {
-         Utils.writeObject(Utils.join(Main.gitletDirectory, "branchMap.data"),
-                 branchMap);
+         if (branchMap == null) {
+             return;
+         }
+         for (String branchName : savedBranchMap.keySet()) {
+             if (!branchMap.containsKey(branchName)) {
+                 pending.add(new Journal.Op(Journal.DELETE_BRANCH, branchName, null));
+             }
+         }
+         for (Map.Entry<String, String> entry : branchMap.entrySet()) {
+             if (!entry.getValue().equals(savedBranchMap.get(entry.getKey()))) {
+                 pending.add(new Journal.Op(Journal.BRANCH, entry.getKey(), entry.getValue()));
+             }
+         }
+         savedBranchMap = new HashMap<String, String>(branchMap);
      }
 
      private void saveHead() {
-         Utils.writeObject(Utils.join(Main.gitletDirectory, "head.data"), head);
+         if (head == null) {
+             return;
+         }
+         if (!head.equals(savedHead)) {
+             pending.add(new Journal.Op(Journal.HEAD, head, null));
+         }
+         savedHead = head;
+     }
+
+     /** Force the objects written by this command to disk, then append
+      *  everything saved since the last flush to the journal as one record,
+      *  with one fsync, and fold the journal into the checkpoint files if
+      *  it has grown too long.  Main calls this after each command.  Throws
+      *  GitletException, appending nothing, if another process has moved a
+      *  branch this command moves since it was read. */
+     void flush() {
+         ObjectStore.syncWritten();
+         journal.append(pending, this::checkBranches);
+         refreshBitmaps();
+         pending.clear();
+         readBranchMap = savedBranchMap;
+         if (journal.size() > Journal.COMPACT_SIZE) {
+             try (RepoLock lock = RepoLock.exclusive(RepoLock.JOURNAL)) {
+                 Repo current = new Repo();
+                 Journal.checkpoint(Utils.join(Main.gitletDirectory, "head.data"),
+                                    current.head());
+                 Journal.checkpoint(Utils.join(Main.gitletDirectory, "branchMap.data"),
+                                    current.branchMap());
+                 Journal.checkpoint(Utils.join(stagingDirectory, "addMap.data"),
+                                    current.addMap());
+                 Journal.checkpoint(Utils.join(stagingDirectory, "removeSet.data"),
+                                    current.removeSet());
+                 current.journal.clear();
+             }
+         }
+     }
+
+     /** Bring the reachability bitmaps up to date with the branches, once
+      *  PENDING is journaled, if it moves a branch to a commit that was not
+      *  the head of any branch when read, and so has no bitmap.  Creating,
+      *  deleting or checking out a branch reads neither the commit graph nor
+      *  the bitmaps. */
+     private void refreshBitmaps() {
+         for (Journal.Op op : pending) {
+             if (op.kind == Journal.BRANCH && !readBranchMap.containsValue(op.value)) {
+                 new Reachability().refresh(savedBranchMap.values());
+                 return;
+             }
+         }
+     }
+
+     /** Throw GitletException if a branch that PENDING moves, creates or
+      *  deletes no longer has the head it had when read: the compare half
+      *  of the compare-and-swap that journaling the move completes.  Runs
+      *  with the journal locked, as read by Journal.append. */
+     private void checkBranches() {
+         HashMap<String, String> current = null;
+         for (Journal.Op op : pending) {
+             if (op.kind != Journal.BRANCH && op.kind != Journal.DELETE_BRANCH) {
+                 continue;
+             }
+             if (current == null) {
+                 current = journal.load(Utils.join(Main.gitletDirectory, "branchMap.data"),
+                                        HashMap.class);
+                 journal.applyToBranches(current);
+             }
+             if (!Objects.equals(current.get(op.key), readBranchMap.get(op.key))) {
+                 throw Utils.error("Branch %s was moved by another process.", op.key);
+             }
+         }
      }
 
      private void saveAll() {
@@ -493,11 +864,21 @@ public class Repo {
             commits.mkdir();
         }
 
+        File trees = new File(Tree.treeDirectory);
+        if (!trees.exists()) {
+            trees.mkdir();
+        }
+
         File blobs = new File(Blob.blobDirectory);
         if (!blobs.exists()) {
             blobs.mkdir();
         }
 
+        File chunks = new File(Blob.chunkDirectory);
+        if (!chunks.exists()) {
+            chunks.mkdir();
+        }
+
         Commit c = new Commit("initial commit");
         c.isFirstCommit = true;
         HashMap<String, String> branchMap = new HashMap<String, String>();
@@ -506,98 +887,65 @@ public class Repo {
 
         Utils.writeObject(Utils.join(Main.gitletDirectory, "head.data"), head);
         Utils.writeObject(Utils.join(Main.gitletDirectory, "branchMap.data"), branchMap);
+        new Reachability().refresh(branchMap.values());
     }
 
     private static boolean isFileModified(String UID1, String UID2) {
         return !UID1.equals(UID2);
     }
 
+    /** Write the conflicted version of FILENAME, streaming the contents of
+     *  the blobs BLOBUID1 and BLOBUID2 into it. A null UID stands for a
+     *  file that is absent on that side and contributes no contents. */
     private void mergeFiles (String fileName, String blobUID1, String blobUID2) {
         byte[] prefix = "<<<<<<< HEAD\n".getBytes();
         byte[] middle = "=======\n".getBytes();
         byte[] suffix = ">>>>>>>".getBytes();
-        Utils.writeContents(Utils.join(Main.workingDirectory, fileName),
-                prefix, Blob.fromUID(blobUID1).getContents(), middle,
-                Blob.fromUID(blobUID2).getContents(), suffix);
-        Utils.message("Encountered a merge conflict.");
-    }
-
-    private String estimateCommitUID(String commitUID){
-
-        File commitDir = new File(Commit.commitDirectory);
-        String[] list = commitDir.list(new FilenameFilter() {
-
-            public boolean accept(File file, String s) {
-                return s.startsWith(commitUID);
+        Checkout.write(fileName, out -> {
+            out.write(ByteBuffer.wrap(prefix));
+            if (blobUID1 != null) {
+                Blob.fromUID(blobUID1).writeTo(out);
+            }
+            out.write(ByteBuffer.wrap(middle));
+            if (blobUID2 != null) {
+                Blob.fromUID(blobUID2).writeTo(out);
             }
+            out.write(ByteBuffer.wrap(suffix));
         });
-        if (list.length != 1) {
-            Utils.message("No commit with that id exists.");
-            System.exit(0);
-            return null;
-        } else {
-            return list[0].substring(0, list[0].length() - ".data".length());
-        }
+        Utils.message("Encountered a merge conflict.");
     }
 
-    private String findCommonAncestor (String commitUID) {
-
-        HashSet<String> ancestors = new HashSet<String>();
-        Commit c = Commit.fromUID(commitUID);
-        findAllAncestors(c, ancestors);
-
-        Commit headCommit = Commit.fromUID(getCommitID(head));
-        Queue<Commit> ancestorQueue = new PriorityQueue<Commit>();
-        if (headCommit.getParent1() != null) {
-            ancestorQueue.add(headCommit.getParent1());
-        }
-        if (headCommit.getParent2() != null) {
-            ancestorQueue.add(headCommit.getParent2());
+    /** Returns the UID of the commit REF names: the head of the branch
+     *  REF, or else the commit whose UID is or starts with REF. */
+    private String resolveCommit(String ref) {
+        if (branchMap().containsKey(ref)) {
+            return branchMap().get(ref);
         }
+        return estimateCommitUID(ref);
+    }
 
-        while (!ancestorQueue.isEmpty()) {
-            c = ancestorQueue.poll();
-            if (c == null) {
-                continue;
-            }
-            if (ancestors.contains(c.UID)) {
-                return c.UID;
-            } else {
-                if (headCommit.getParent1() != null) {
-                    ancestorQueue.add(headCommit.getParent1());
-                }
-                if (headCommit.getParent2() != null) {
-                    ancestorQueue.add(headCommit.getParent2());
-                }
-            }
-        }
+    /** Returns the UID of the commit whose UID is, or starts with,
+     *  COMMITUID, found in the CommitIndex.  Throws GitletException if
+     *  there is no such commit or several. */
+    private String estimateCommitUID(String commitUID) {
+        return new CommitIndex().resolve(commitUID);
+    }
 
-        return null;
+    /** Returns the UID of the best common ancestor of the given commit
+     *  COMMITUID and the head commit, or null if they have none. */
+    private String findCommonAncestor (String commitUID) {
+        CommitGraph graph = CommitGraph.get();
+        int base = new MergeBase(graph).best(graph.indexOf(getCommitID(head())),
+                                             graph.indexOf(commitUID));
+        return base == CommitGraph.NONE ? null : graph.uid(base);
     }
 
     private boolean isBackwardMerge (String commitUID) {
-        String headstring = getCommitID(head);
-        Commit headCommit = Commit.fromUID(headstring);
-        HashSet<String> ancestors = new HashSet<String>();
-        findAllAncestors(headCommit, ancestors);
-        return ancestors.contains(commitUID);
+        return new Reachability().isAncestor(commitUID, getCommitID(head()));
     }
 
     private boolean isForwardMerge (String commitUID) {
-        HashSet<String> ancestors = new HashSet<String>();
-        Commit c = Commit.fromUID(commitUID);
-        findAllAncestors(c, ancestors);
-        return ancestors.contains(getCommitID(head));
-    }
-
-    private void findAllAncestors (Commit c, HashSet<String> ancestors) {
-        if (c == null) {
-            return;
-        } else {
-            ancestors.add(c.UID);
-            findAllAncestors(c.getParent1(), ancestors);
-            findAllAncestors(c.getParent2(), ancestors);
-        }
+        return new Reachability().isAncestor(getCommitID(head()), commitUID);
     }
 
 }
@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/** A lock held by this process on one region of the file .gitlet/lock,
+ *  with FileChannel.lock, so that several gitlet processes can share one
+ *  repository.  Each region is a one-byte range of the file, held shared
+ *  or exclusive:
+ *
+ *      REPOSITORY  shared by every command for its whole run, and exclusive
+ *                  for gc, which rewrites the object stores
+ *      JOURNAL     shared while reading the journal with the checkpoints,
+ *                  and exclusive while appending to or compacting it
+ *      INDEXES     exclusive while appending to the commit graph or the
+ *                  message index, shared while reading the message index
+ *      HEAD        exclusive for a command that changes the current branch
+ *                  or the staging area
+ *      branch(B)   exclusive for a command that moves, creates or deletes
+ *                  branch B; branches share STRIPES regions by hash
+ *
+ *  Readers thus never wait for one another, commands that change different
+ *  branches run side by side, and the journal lock is only held for the
+ *  moment of an append.  A process takes HEAD before any branch region, and
+ *  at most one branch region, so processes cannot deadlock.
+ *
+ *  Within the process, each region also has a ReentrantReadWriteLock, so
+ *  threads exclude one another as processes do, and the file lock is taken
+ *  by the first thread in and released by the last one out.  A thread may
+ *  lock a region again while it holds it, and a region it holds exclusive
+ *  satisfies its request for a shared lock, but it may not ask for an
+ *  exclusive lock on a region it holds shared.  Waiting for another process
+ *  blocks only threads that want the same region.  Outside a repository,
+ *  as in unit tests, locking does nothing. */
+class RepoLock implements AutoCloseable {
+
+    static final int REPOSITORY = 0;
+    static final int JOURNAL = 1;
+    static final int INDEXES = 2;
+    static final int HEAD = 3;
+
+    /** Number of regions the branches are spread over. */
+    static final int STRIPES = 64;
+
+    static String lockFile = Utils.join(Main.gitletDirectory, "lock").getPath();
+
+    /** The state of one region in this process. */
+    private static class Region {
+        /** The position of the region in the lock file. */
+        final int position;
+        /** Excludes the threads of this process from one another. */
+        final ReentrantReadWriteLock threads = new ReentrantReadWriteLock();
+        /** The file lock, while any thread holds the region. */
+        FileLock lock;
+        /** The number of locks held on the region by all threads. */
+        int holders;
+
+        Region(int position) {
+            this.position = position;
+        }
+    }
+
+    /** The open lock file, once needed. */
+    private static FileChannel channel;
+
+    /** The regions used so far, by position. */
+    private static final ConcurrentHashMap<Integer, Region> REGIONS =
+        new ConcurrentHashMap<Integer, Region>();
+
+    /** The region of this lock, or null if it locks nothing. */
+    private final Region region;
+
+    /** The lock this holds on REGION within the process. */
+    private final Lock threadLock;
+
+    /** True once released. */
+    private boolean closed;
+
+    private RepoLock(Region region, Lock threadLock) {
+        this.region = region;
+        this.threadLock = threadLock;
+    }
+
+    /** Returns the region of the branch named NAME. */
+    static int branch(String name) {
+        return HEAD + 1 + Math.floorMod(name.hashCode(), STRIPES);
+    }
+
+    /** Returns a shared lock on REGION, waiting for it if needed. */
+    static RepoLock shared(int region) {
+        return acquire(region, true);
+    }
+
+    /** Returns an exclusive lock on REGION, waiting for it if needed. */
+    static RepoLock exclusive(int region) {
+        return acquire(region, false);
+    }
+
+    private static RepoLock acquire(int position, boolean shared) {
+        if (!Main.isInitialised()) {
+            return new RepoLock(null, null);
+        }
+        Region region = REGIONS.computeIfAbsent(position, Region::new);
+        ReentrantReadWriteLock threads = region.threads;
+        if (!shared && threads.getReadHoldCount() > 0 && !threads.isWriteLockedByCurrentThread()) {
+            throw new IllegalStateException("cannot upgrade a shared lock");
+        }
+        Lock threadLock = shared ? threads.readLock() : threads.writeLock();
+        threadLock.lock();
+        try {
+            synchronized (region) {
+                if (region.holders == 0) {
+                    region.lock = channel().lock(region.position, 1, shared);
+                }
+                region.holders += 1;
+            }
+        } catch (IOException excp) {
+            threadLock.unlock();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new RepoLock(region, threadLock);
+    }
+
+    /** Returns the lock file, opened if needed. */
+    private static synchronized FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(new File(lockFile).toPath(), StandardOpenOption.CREATE,
+                                       StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return channel;
+    }
+
+    /** Release this lock. */
+    @Override
+    public void close() {
+        if (region == null || closed) {
+            return;
+        }
+        closed = true;
+        try {
+            synchronized (region) {
+                region.holders -= 1;
+                if (region.holders == 0) {
+                    region.lock.release();
+                    region.lock = null;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            threadLock.unlock();
+        }
+    }
+
+}
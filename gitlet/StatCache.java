@@ -0,0 +1,254 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/** The stat data and blob UID of working files, as last hashed, so that a
+ *  file whose size, modification time and file key (its inode, where the
+ *  file system has them) are unchanged is not read again.
+ *
+ *  The cache is kept in the file index, which is MAGIC, the number of
+ *  entries, and for each the tracked path, size, modification time in
+ *  nanoseconds, hash of the file key, and raw blob UID.  A file that does
+ *  not start with MAGIC, such as one from an earlier version, is ignored,
+ *  so every file is hashed again and the index rewritten.
+ *
+ *  A file may change again within the granularity of its modification
+ *  time, just after it was hashed, without its stat data changing.  So an
+ *  entry is only trusted if the file was last modified strictly before the
+ *  index was written; the others are "racily clean" and are hashed again,
+ *  and the index is rewritten so that next time they are trusted. */
+class StatCache {
+
+    static final byte[] MAGIC = { (byte) 0xc7, 'G', 'L', 'S', 1 };
+
+    static String indexFile = Utils.join(Main.gitletDirectory, "index").getPath();
+
+    /** Number of files below which a hashing task is not split. */
+    private static final int SPLIT = 16;
+
+    /** The stat data and UID recorded for one path. */
+    private static class Entry {
+        long size;
+        long modified;
+        int key;
+        String uid;
+    }
+
+    /** The file holding the cache. */
+    private final File file;
+
+    /** The entries, by tracked path. */
+    private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+    /** The modification time of FILE when read, in nanoseconds. */
+    private long written = Long.MIN_VALUE;
+
+    /** True iff the entries differ from those in FILE. */
+    private boolean dirty;
+
+    /** The stat cache of this repository. */
+    StatCache() {
+        this(new File(indexFile));
+    }
+
+    /** The stat cache stored in FILE, or an empty one if there is none. */
+    StatCache(File file) {
+        this.file = file;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), Utils.BUFFER_SIZE))) {
+            written = Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS);
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                return;
+            }
+            int n = in.readInt();
+            byte[] hash = new byte[Utils.UID_LENGTH / 2];
+            for (int i = 0; i < n; i += 1) {
+                String path = in.readUTF();
+                Entry entry = new Entry();
+                entry.size = in.readLong();
+                entry.modified = in.readLong();
+                entry.key = in.readInt();
+                in.readFully(hash);
+                entry.uid = Utils.bytesToUID(hash, 0);
+                entries.put(path, entry);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the blob UID of the contents of WORKING, the working file
+     *  tracked as PATH, hashing it only if its stat data has changed since
+     *  it was last hashed or cannot be trusted. */
+    String uid(String path, File working) {
+        return record(path, lookup(path, working));
+    }
+
+    /** Returns a map from each path in FILES to the blob UID of the
+     *  contents of its working file, as uid does, hashing on
+     *  Utils.THREADS threads. */
+    Map<String, String> uids(Map<String, File> files) {
+        return uids(files, Utils.THREADS);
+    }
+
+    /** Returns a map from each path in FILES to the blob UID of the
+     *  contents of its working file, as uid does, hashing on THREADS
+     *  threads. */
+    Map<String, String> uids(Map<String, File> files, int threads) {
+        String[] paths = files.keySet().toArray(new String[0]);
+        File[] working = new File[paths.length];
+        for (int i = 0; i < paths.length; i += 1) {
+            working[i] = files.get(paths[i]);
+        }
+        Entry[] found = new Entry[paths.length];
+        HashTask task = new HashTask(paths, working, found, 0, paths.length);
+        if (threads <= 1 || paths.length < SPLIT) {
+            task.compute();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(task);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        HashMap<String, String> result = new HashMap<String, String>(paths.length * 4 / 3 + 1);
+        for (int i = 0; i < paths.length; i += 1) {
+            result.put(paths[i], record(paths[i], found[i]));
+        }
+        return result;
+    }
+
+    /** Hashes the files FROM to TO of a call of uids. */
+    private class HashTask extends RecursiveAction {
+
+        private final String[] paths;
+        private final File[] working;
+        private final Entry[] found;
+        private final int from;
+        private final int to;
+
+        HashTask(String[] paths, File[] working, Entry[] found, int from, int to) {
+            this.paths = paths;
+            this.working = working;
+            this.found = found;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT || getPool() == null) {
+                for (int i = from; i < to; i += 1) {
+                    found[i] = lookup(paths[i], working[i]);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new HashTask(paths, working, found, from, middle),
+                      new HashTask(paths, working, found, middle, to));
+        }
+    }
+
+    /** Returns the entry for WORKING, the working file tracked as PATH:
+     *  the recorded one if it can be trusted, and otherwise a new one made
+     *  by hashing the file.  Changes nothing, so it may be called from
+     *  several threads at once. */
+    private Entry lookup(String path, File working) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(working.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        int key = Objects.hashCode(attributes.fileKey());
+        Entry entry = entries.get(path);
+        if (entry != null && entry.size == size && entry.modified == modified
+            && entry.key == key && modified < written) {
+            return entry;
+        }
+        entry = new Entry();
+        entry.size = size;
+        entry.modified = modified;
+        entry.key = key;
+        entry.uid = Utils.sha1Contents(working);
+        return entry;
+    }
+
+    /** Record ENTRY, found by lookup, as that of PATH.  Returns its UID. */
+    private String record(String path, Entry entry) {
+        if (entries.get(path) != entry) {
+            entries.put(path, entry);
+            dirty = true;
+        }
+        return entry.uid;
+    }
+
+    /** Drop the entries of all paths but those in PATHS. */
+    void retain(Collection<String> paths) {
+        Iterator<String> iter = entries.keySet().iterator();
+        while (iter.hasNext()) {
+            if (!paths.contains(iter.next())) {
+                iter.remove();
+                dirty = true;
+            }
+        }
+    }
+
+    /** Write the entries back to the file, if they have changed. */
+    void save() {
+        if (!dirty) {
+            return;
+        }
+        File temp = Utils.tempFile(file);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp), Utils.BUFFER_SIZE))) {
+            out.write(MAGIC);
+            out.writeInt(entries.size());
+            for (HashMap.Entry<String, Entry> item : entries.entrySet()) {
+                Entry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                out.writeInt(entry.key);
+                out.write(Utils.uidToBytes(entry.uid));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dirty = false;
+    }
+
+}
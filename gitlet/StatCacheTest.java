@@ -0,0 +1,80 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of StatCache.
+ *  @author
+ */
+public class StatCacheTest {
+
+    @Test
+    public void rehashesOnlyChangedFiles() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        File index = new File(dir, "index");
+        File file = new File(dir, "f.txt");
+        Utils.writeContents(file, "one");
+        long modified = System.currentTimeMillis() - 10000;
+        file.setLastModified(modified);
+        StatCache cache = new StatCache(index);
+        assertEquals(Utils.sha1Contents(file), cache.uid("f.txt", file));
+        cache.save();
+
+        Utils.writeContents(file, "two");
+        file.setLastModified(modified);
+        assertEquals(Utils.sha1("one".getBytes()), new StatCache(index).uid("f.txt", file));
+
+        Utils.writeContents(file, "three");
+        assertEquals(Utils.sha1("three".getBytes()), new StatCache(index).uid("f.txt", file));
+
+        file.delete();
+        index.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void parallelHashingMatchesSequential() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        HashMap<String, File> files = new HashMap<String, File>();
+        for (int i = 0; i < 500; i += 1) {
+            File file = new File(dir, "f" + i);
+            Utils.writeContents(file, "contents " + i);
+            files.put(file.getName(), file);
+        }
+        Map<String, String> uids = new StatCache(new File(dir, "index")).uids(files, 4);
+        assertEquals(files.size(), uids.size());
+        for (Map.Entry<String, File> file : files.entrySet()) {
+            assertEquals(Utils.sha1Contents(file.getValue()), uids.get(file.getKey()));
+            file.getValue().delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void racilyCleanEntriesAreRehashed() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        File index = new File(dir, "index");
+        File file = new File(dir, "f.txt");
+        Utils.writeContents(file, "one");
+        long future = System.currentTimeMillis() + 60000;
+        file.setLastModified(future);
+        StatCache cache = new StatCache(index);
+        cache.uid("f.txt", file);
+        cache.save();
+
+        Utils.writeContents(file, "two");
+        file.setLastModified(future);
+        assertEquals(Utils.sha1("two".getBytes()), new StatCache(index).uid("f.txt", file));
+
+        file.delete();
+        index.delete();
+        dir.delete();
+    }
+
+}
@@ -0,0 +1,72 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** Walks of the ancestry of commits in a CommitGraph.  The walks are
+ *  iterative, with an explicit stack of commit indices, so their depth is
+ *  not limited by the Java stack, and each commit is visited once, marked
+ *  in a bitmap indexed by its position in the graph.  A walk therefore
+ *  takes time and space linear in the commits it reaches, however many
+ *  paths lead to them. */
+class Traversal {
+
+    private final CommitGraph graph;
+
+    Traversal(CommitGraph graph) {
+        this.graph = graph;
+    }
+
+    /** Returns the set of indices of commit START and all its ancestors. */
+    BitSet ancestors(int start) {
+        return walk(start, CommitGraph.NONE, 0);
+    }
+
+    /** Returns true iff commit ANCESTOR is DESCENDANT or one of its
+     *  ancestors.  Every ancestor of DESCENDANT with a generation lower than
+     *  that of ANCESTOR has only such ancestors, so the walk goes no further
+     *  back than the generation of ANCESTOR. */
+    boolean isAncestor(int ancestor, int descendant) {
+        if (ancestor == CommitGraph.NONE || descendant == CommitGraph.NONE) {
+            return false;
+        }
+        return walk(descendant, ancestor, graph.generation(ancestor)).get(ancestor);
+    }
+
+    /** Returns the set of commits reached from commit START by following
+     *  parents of generation at least FLOOR, stopping as soon as TARGET, if
+     *  not NONE, is reached. */
+    private BitSet walk(int start, int target, int floor) {
+        BitSet visited = new BitSet(graph.size());
+        if (start == CommitGraph.NONE) {
+            return visited;
+        }
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = start;
+        visited.set(start);
+        while (top > 0) {
+            int c = stack[--top];
+            if (c == target) {
+                break;
+            }
+            if (top + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+            }
+            int parent = graph.parent1(c);
+            if (parent != CommitGraph.NONE && !visited.get(parent)
+                && graph.generation(parent) >= floor) {
+                visited.set(parent);
+                stack[top++] = parent;
+            }
+            parent = graph.parent2(c);
+            if (parent != CommitGraph.NONE && !visited.get(parent)
+                && graph.generation(parent) >= floor) {
+                visited.set(parent);
+                stack[top++] = parent;
+            }
+        }
+        return visited;
+    }
+
+}
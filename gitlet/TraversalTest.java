@@ -0,0 +1,91 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Traversal and MergeBase on synthetic commit graphs.
+ *  @author
+ */
+public class TraversalTest {
+
+    /** Returns an empty commit graph in a new temporary file. */
+    private static CommitGraph newGraph() throws IOException {
+        File file = File.createTempFile("gitlet", ".graph");
+        file.deleteOnExit();
+        file.delete();
+        return new CommitGraph(file);
+    }
+
+    /** Append a commit with the parents PARENT1 and PARENT2 to GRAPH, with a
+     *  UID made from its index.  Returns its index. */
+    private static int add(CommitGraph graph, int parent1, int parent2) {
+        byte[] hash = ByteBuffer.allocate(Utils.UID_LENGTH / 2).putInt(graph.size()).array();
+        return graph.add(Utils.bytesToUID(hash, 0), parent1, parent2, graph.size());
+    }
+
+    @Test
+    public void deepLinearHistory() throws IOException {
+        CommitGraph graph = newGraph();
+        int tip = CommitGraph.NONE;
+        for (int i = 0; i < 1000000; i += 1) {
+            tip = add(graph, tip, CommitGraph.NONE);
+        }
+        Traversal traversal = new Traversal(graph);
+        assertEquals(1000000, traversal.ancestors(tip).cardinality());
+        assertTrue(traversal.isAncestor(0, tip));
+        assertFalse(traversal.isAncestor(tip, 0));
+        assertEquals(500000, new MergeBase(graph).best(tip, 500000));
+    }
+
+    @Test
+    public void diamondHistory() throws IOException {
+        CommitGraph graph = newGraph();
+        int diamonds = 100000;
+        int tip = add(graph, CommitGraph.NONE, CommitGraph.NONE);
+        int fork = tip;
+        int left = tip;
+        int right = tip;
+        for (int i = 0; i < diamonds; i += 1) {
+            fork = tip;
+            left = add(graph, fork, CommitGraph.NONE);
+            right = add(graph, fork, CommitGraph.NONE);
+            tip = add(graph, left, right);
+        }
+        Traversal traversal = new Traversal(graph);
+        assertEquals(3 * diamonds + 1, traversal.ancestors(tip).cardinality());
+        assertTrue(traversal.isAncestor(0, tip));
+        assertFalse(traversal.isAncestor(left, right));
+        assertEquals(fork, new MergeBase(graph).best(left, right));
+        assertEquals(left, new MergeBase(graph).best(left, tip));
+    }
+
+    @Test
+    public void crissCrossHasTwoBases() throws IOException {
+        CommitGraph graph = newGraph();
+        int root = add(graph, CommitGraph.NONE, CommitGraph.NONE);
+        int a1 = add(graph, root, CommitGraph.NONE);
+        int b1 = add(graph, root, CommitGraph.NONE);
+        int a2 = add(graph, a1, b1);
+        int b2 = add(graph, b1, a1);
+        MergeBase mergeBase = new MergeBase(graph);
+        assertEquals(Arrays.asList(b1, a1), mergeBase.all(a2, b2));
+        assertEquals(Arrays.asList(a1), mergeBase.all(a1, a2));
+    }
+
+    @Test
+    public void unrelatedHistories() throws IOException {
+        CommitGraph graph = newGraph();
+        int a = add(graph, CommitGraph.NONE, CommitGraph.NONE);
+        int b = add(graph, CommitGraph.NONE, CommitGraph.NONE);
+        a = add(graph, a, CommitGraph.NONE);
+        assertEquals(CommitGraph.NONE, new MergeBase(graph).best(a, b));
+        assertFalse(new Traversal(graph).isAncestor(b, a));
+        assertEquals(2, new Traversal(graph).ancestors(a).cardinality());
+    }
+
+}
@@ -0,0 +1,237 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A directory of a commit: the names of its files and subdirectories,
+ *  each with the UID of its blob or of its own Tree.  A tree is stored in
+ *  an encoding whose SHA-1 hash is its UID:
+ *
+ *      MAGIC                   't' 'r' and the version of the encoding
+ *      entry count             varint
+ *      entries                 in sorted order of name: the type (BLOB or
+ *                              TREE), the name as a varint length and UTF-8
+ *                              bytes, and the 20 raw bytes of the UID
+ *
+ *  Since a tree is named by its contents, a directory that did not change
+ *  between two commits is the same tree in both, and a commit only writes
+ *  the trees along the paths it changes.  Paths within a commit are
+ *  separated by '/'. */
+class Tree {
+
+    /** Starts every encoded tree: 't', 'r' and the encoding version. */
+    private static final byte[] MAGIC = { 't', 'r', 1 };
+
+    /** Type of an entry naming a file. */
+    static final byte BLOB = 0;
+
+    /** Type of an entry naming a subdirectory. */
+    static final byte TREE = 1;
+
+    static String treeDirectory = Utils.join(Main.gitletDirectory, "trees").getPath();
+
+    /** Holds every tree, compressed with the default codec. */
+    static ObjectStore store = new ObjectStore(treeDirectory);
+
+    /** A file or subdirectory of a tree. */
+    static class Entry {
+        final byte type;
+        final String uid;
+
+        Entry(byte type, String uid) {
+            this.type = type;
+            this.uid = uid;
+        }
+    }
+
+    /** Maps the name of each file and subdirectory to its Entry. */
+    private final TreeMap<String, Entry> entries = new TreeMap<String, Entry>();
+
+    /** Returns the stored tree UID. */
+    static Tree read(String uid) {
+        return decode(store.read(uid));
+    }
+
+    /** Store this tree, unless an identical one is stored already.
+     *  Returns its UID. */
+    String write() {
+        byte[] contents = encode();
+        String uid = Utils.sha1(contents);
+        if (!store.contains(uid)) {
+            new File(treeDirectory).mkdir();
+            store.write(uid, contents, 0, contents.length);
+        }
+        return uid;
+    }
+
+    /** Returns the entry named NAME, or null if there is none. */
+    Entry get(String name) {
+        return entries.get(name);
+    }
+
+    /** Returns the UID of the blob at PATH in the stored tree ROOT, or null
+     *  if there is none.  Only the trees along PATH are read. */
+    static String lookup(String root, String path) {
+        String uid = root;
+        int start = 0;
+        while (uid != null) {
+            int slash = path.indexOf('/', start);
+            Entry entry = read(uid).get(slash < 0 ? path.substring(start)
+                                                  : path.substring(start, slash));
+            if (entry == null) {
+                return null;
+            } else if (slash < 0) {
+                return entry.type == BLOB ? entry.uid : null;
+            } else if (entry.type != TREE) {
+                return null;
+            }
+            uid = entry.uid;
+            start = slash + 1;
+        }
+        return null;
+    }
+
+    /** Returns a map from the path of every file below the stored tree ROOT
+     *  to the UID of its blob. */
+    static HashMap<String, String> flatten(String root) {
+        HashMap<String, String> files = new HashMap<String, String>();
+        Deque<String[]> pending = new ArrayDeque<String[]>();
+        pending.push(new String[] { "", root });
+        while (!pending.isEmpty()) {
+            String[] dir = pending.pop();
+            for (Map.Entry<String, Entry> entry : read(dir[1]).entries.entrySet()) {
+                String path = dir[0] + entry.getKey();
+                if (entry.getValue().type == TREE) {
+                    pending.push(new String[] { path + "/", entry.getValue().uid });
+                } else {
+                    files.put(path, entry.getValue().uid);
+                }
+            }
+        }
+        return files;
+    }
+
+    /** Returns the changes that turn the stored tree FROM into the stored
+     *  tree TO, either of which may be null for an empty tree, in the form
+     *  taken by update: a map from each path whose blob differs to its blob
+     *  in TO, or to null if TO has no file there.  Subtrees with the same
+     *  UID on both sides are skipped without being read. */
+    static TreeMap<String, String> diff(String from, String to) {
+        TreeMap<String, String> changes = new TreeMap<String, String>();
+        Deque<String[]> pending = new ArrayDeque<String[]>();
+        pending.push(new String[] { "", from, to });
+        while (!pending.isEmpty()) {
+            String[] dir = pending.pop();
+            if (dir[1] != null && dir[1].equals(dir[2])) {
+                continue;
+            }
+            Tree before = dir[1] == null ? new Tree() : read(dir[1]);
+            Tree after = dir[2] == null ? new Tree() : read(dir[2]);
+            TreeMap<String, Entry> names = new TreeMap<String, Entry>(before.entries);
+            names.putAll(after.entries);
+            for (String name : names.keySet()) {
+                Entry old = before.get(name);
+                Entry now = after.get(name);
+                if (old != null && now != null && old.type == now.type
+                    && old.uid.equals(now.uid)) {
+                    continue;
+                }
+                String path = dir[0] + name;
+                String oldTree = old != null && old.type == TREE ? old.uid : null;
+                String newTree = now != null && now.type == TREE ? now.uid : null;
+                if (oldTree != null || newTree != null) {
+                    pending.push(new String[] { path + "/", oldTree, newTree });
+                }
+                if (now != null && now.type == BLOB) {
+                    changes.put(path, now.uid);
+                } else if (old != null && old.type == BLOB) {
+                    changes.put(path, null);
+                }
+            }
+        }
+        return changes;
+    }
+
+    /** Returns the UID of the tree that results from applying CHANGES to the
+     *  stored tree ROOT, or to an empty tree if ROOT is null.  CHANGES maps
+     *  paths to the UIDs of their new blobs, or to null for paths to be
+     *  removed.  Only the trees along the changed paths are read and
+     *  written; directories left empty are dropped. */
+    static String update(String root, Map<String, String> changes) {
+        return updated(root, changes).write();
+    }
+
+    /** Returns the tree UID, or an empty tree if UID is null, with CHANGES
+     *  applied, as in update.  Changed subtrees are stored, but the
+     *  returned tree is not. */
+    static Tree updated(String uid, Map<String, String> changes) {
+        Tree tree = uid == null ? new Tree() : read(uid);
+        TreeMap<String, Map<String, String>> subdirs = new TreeMap<String, Map<String, String>>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subdirs.computeIfAbsent(path.substring(0, slash), k -> new HashMap<String, String>())
+                    .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                tree.entries.remove(path);
+            } else {
+                tree.entries.put(path, new Entry(BLOB, change.getValue()));
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> subdir : subdirs.entrySet()) {
+            Entry old = tree.entries.get(subdir.getKey());
+            Tree child = updated(old != null && old.type == TREE ? old.uid : null,
+                                 subdir.getValue());
+            if (child.entries.isEmpty()) {
+                tree.entries.remove(subdir.getKey());
+            } else {
+                tree.entries.put(subdir.getKey(), new Entry(TREE, child.write()));
+            }
+        }
+        return tree;
+    }
+
+    /** Returns the canonical encoding of this tree. */
+    byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + entries.size() * 48);
+        out.write(MAGIC, 0, MAGIC.length);
+        Utils.writeVarint(out, entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            out.write(entry.getValue().type);
+            byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            Utils.writeVarint(out, name.length);
+            out.write(name, 0, name.length);
+            out.write(Utils.uidToBytes(entry.getValue().uid), 0, Utils.UID_LENGTH / 2);
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the tree whose encoding is CONTENTS. */
+    static Tree decode(byte[] contents) {
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (contents[i] != MAGIC[i]) {
+                throw new IllegalArgumentException("unknown tree encoding");
+            }
+        }
+        int[] position = { MAGIC.length };
+        Tree tree = new Tree();
+        int count = Utils.readVarint(contents, position);
+        for (int i = 0; i < count; i += 1) {
+            byte type = contents[position[0]++];
+            int length = Utils.readVarint(contents, position);
+            String name = new String(contents, position[0], length, StandardCharsets.UTF_8);
+            position[0] += length;
+            tree.entries.put(name, new Entry(type, Utils.bytesToUID(contents, position[0])));
+            position[0] += Utils.UID_LENGTH / 2;
+        }
+        return tree;
+    }
+
+}
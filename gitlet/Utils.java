@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -8,9 +9,14 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -59,6 +65,77 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the LENGTH bytes of DATA starting at
+     *  OFFSET. */
+    static String sha1(byte[] data, int offset, int length) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(data, offset, length);
+            return bytesToUID(md.digest(), 0);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns true iff UID is a complete hexadecimal UID. */
+    static boolean isUID(String uid) {
+        if (uid == null || uid.length() != UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UID_LENGTH; i += 1) {
+            if (Character.digit(uid.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the UID_LENGTH / 2 raw bytes denoted by the hexadecimal
+     *  UID. */
+    static byte[] uidToBytes(String uid) {
+        byte[] result = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) (Character.digit(uid.charAt(2 * i), 16) << 4
+                                | Character.digit(uid.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal UID denoted by the UID_LENGTH / 2 bytes of
+     *  HASH starting at OFFSET. */
+    static String bytesToUID(byte[] hash, int offset) {
+        char[] result = new char[UID_LENGTH];
+        for (int i = 0; i < UID_LENGTH / 2; i += 1) {
+            int b = hash[offset + i] & 0xff;
+            result[2 * i] = Character.forDigit(b >>> 4, 16);
+            result[2 * i + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return new String(result);
+    }
+
+    /** Write VALUE to OUT in seven-bit groups, least significant first,
+     *  with the high bit of each byte but the last set. */
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Returns the number written by writeVarint at POSITION[0] in DATA,
+     *  and advances POSITION[0] past it. */
+    static int readVarint(byte[] data, int[] position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = data[position[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -153,6 +230,88 @@ class Utils {
         writeContents(file, serialize(obj));
     }
 
+    /** Returns a new, empty file beside FILE, named so that no other
+     *  process writing FILE at the same time uses it, to be written and
+     *  then moved over FILE. */
+    static File tempFile(File file) {
+        try {
+            return File.createTempFile(file.getName() + "-", ".tmp", file.getParentFile());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* STREAMING FILE CONTENTS */
+
+    /** Size of the buffer used when streaming file contents, so that
+     *  files of any size are processed in constant memory. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Number of threads used for work spread over many files, such as
+     *  hashing or writing working files, set by the system property
+     *  gitlet.threads. */
+    static final int THREADS = Integer.getInteger("gitlet.threads",
+                                                  Runtime.getRuntime().availableProcessors());
+
+    /** Returns the SHA-1 hash of the contents of FILE, read BUFFER_SIZE
+     *  bytes at a time.  The result is the same as sha1(readContents(FILE)).
+     *  Throws IllegalArgumentException in case of problems. */
+    static String sha1Contents(File file) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+            Formatter result = new Formatter();
+            for (byte b : md.digest()) {
+                result.format("%02x", b);
+            }
+            return result.toString();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Copy the contents of SOURCE to DEST, creating or overwriting DEST as
+     *  needed.  The bytes are moved channel to channel and never held on
+     *  the heap as a whole.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static void copyContents(File source, File dest) {
+        if (dest.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        try (FileChannel in = FileChannel.open(source.toPath(),
+                                               StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(dest.toPath(),
+                                                StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            transferContents(in, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Append all remaining bytes of IN to OUT. */
+    static void transferContents(FileChannel in, FileChannel out)
+        throws IOException {
+        long position = in.position();
+        long size = in.size();
+        while (position < size) {
+            position += in.transferTo(position, size - position, out);
+        }
+        in.position(position);
+    }
+
     /* DIRECTORIES */
 
     /** Filter out all but plain files. */
@@ -232,4 +391,11 @@ class Utils {
         System.out.printf(msg, args);
         System.out.println();
     }
+
+    /** Returns a writer on the standard output that writes in large
+     *  blocks, for output as long as a log.  It must be flushed when done,
+     *  and before anything else is printed. */
+    static PrintWriter output() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+    }
 }
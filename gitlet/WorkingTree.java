@@ -0,0 +1,190 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/** The files of the working directory, found by walking it recursively.
+ *  The walk never enters .gitlet, and skips whatever the file .gitletignore
+ *  at the top of the working directory says to ignore; an ignored
+ *  directory is not descended at all.
+ *
+ *  Each line of .gitletignore is a glob pattern, except blank lines and
+ *  lines starting with '#'.  A pattern ending in '/' matches directories
+ *  only.  A pattern containing no other '/' matches a file or directory
+ *  of that name at any depth; otherwise it matches tracked paths from the
+ *  top of the working directory.  A pattern starting with '!' re-includes
+ *  what an earlier pattern ignored.  The last matching pattern wins. */
+class WorkingTree {
+
+    static final String IGNORE_FILE = ".gitletignore";
+
+    /** One pattern of .gitletignore. */
+    private static class Rule {
+        PathMatcher matcher;
+        boolean directoryOnly;
+        boolean anyDepth;
+        boolean negated;
+    }
+
+    /** The top of the working directory. */
+    private final Path root;
+
+    /** The .gitlet directory, which is never walked. */
+    private final Path gitlet;
+
+    /** The patterns of .gitletignore, in order. */
+    private final List<Rule> rules = new ArrayList<Rule>();
+
+    /** The working directory of this repository. */
+    WorkingTree() {
+        this(new File(Main.workingDirectory));
+    }
+
+    /** The working directory ROOT, whose .gitlet directory is ignored. */
+    WorkingTree(File root) {
+        this.root = root.toPath().toAbsolutePath().normalize();
+        this.gitlet = this.root.resolve(".gitlet");
+        File ignore = this.root.resolve(IGNORE_FILE).toFile();
+        if (ignore.isFile()) {
+            for (String line : Utils.readContentsAsString(ignore).split("\r?\n")) {
+                addRule(line.strip());
+            }
+        }
+    }
+
+    /** Add the .gitletignore pattern LINE, unless it is blank or a
+     *  comment. */
+    private void addRule(String line) {
+        if (line.isEmpty() || line.startsWith("#")) {
+            return;
+        }
+        Rule rule = new Rule();
+        if (line.startsWith("!")) {
+            rule.negated = true;
+            line = line.substring(1);
+        }
+        if (line.endsWith("/")) {
+            rule.directoryOnly = true;
+            line = line.substring(0, line.length() - 1);
+        }
+        if (line.startsWith("/")) {
+            line = line.substring(1);
+        } else if (line.indexOf('/') < 0) {
+            rule.anyDepth = true;
+        }
+        if (line.isEmpty()) {
+            return;
+        }
+        rule.matcher = FileSystems.getDefault().getPathMatcher("glob:" + line);
+        rules.add(rule);
+    }
+
+    /** Returns true iff the tracked path PATH, a directory if DIRECTORY, is
+     *  ignored. */
+    boolean isIgnored(String path, boolean directory) {
+        Path full = Paths.get(path);
+        Path name = full.getFileName();
+        boolean ignored = false;
+        for (Rule rule : rules) {
+            if (rule.directoryOnly && !directory) {
+                continue;
+            }
+            if (rule.matcher.matches(rule.anyDepth ? name : full)) {
+                ignored = !rule.negated;
+            }
+        }
+        return ignored;
+    }
+
+    /** Returns the tracked path of the file FILE, or null if it is outside
+     *  the working directory or inside .gitlet. */
+    String trackedPath(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        if (!path.startsWith(root) || path.equals(root) || path.startsWith(gitlet)) {
+            return null;
+        }
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /** Returns the tracked path and file of every file that is not ignored
+     *  under DIR, or of every such file whose tracked path MATCHER matches
+     *  if MATCHER is not null, in order of tracked path. */
+    Map<String, File> files(File dir, PathMatcher matcher) {
+        TreeMap<String, File> files = new TreeMap<String, File>();
+        Path start = dir.toPath().toAbsolutePath().normalize();
+        if (!start.startsWith(root) || start.startsWith(gitlet)) {
+            return files;
+        }
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+                    String name = trackedPath(path);
+                    if (path.equals(gitlet) || (name != null && isIgnored(name, true))) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                    String name = trackedPath(path);
+                    if (attrs.isRegularFile() && name != null && !isIgnored(name, false)
+                        && (matcher == null || matcher.matches(Paths.get(name)))) {
+                        files.put(name, path.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return files;
+    }
+
+    /** Returns every file of the working directory that is not ignored, by
+     *  tracked path, in order. */
+    Map<String, File> files() {
+        return files(root.toFile(), null);
+    }
+
+    /** Returns true iff writing the tracked path PATH would overwrite or
+     *  displace a file whose tracked path TRACKED is false for: a file
+     *  at PATH, a file under a directory at PATH, or a file where one of the
+     *  directories of PATH would go.  Ignored files count too. */
+    boolean occupied(String path, Predicate<String> tracked) {
+        Path target = root.resolve(path);
+        if (Files.isDirectory(target)) {
+            try (Stream<Path> walk = Files.walk(target)) {
+                return walk.anyMatch(file -> !Files.isDirectory(file)
+                                     && !tracked.test(trackedPath(file)));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        } else if (Files.exists(target)) {
+            return !tracked.test(path);
+        }
+        for (Path dir = target.getParent(); dir != null && !dir.equals(root);
+             dir = dir.getParent()) {
+            if (Files.exists(dir) && !Files.isDirectory(dir)) {
+                return !tracked.test(trackedPath(dir));
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,64 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of WorkingTree.
+ *  @author
+ */
+public class WorkingTreeTest {
+
+    /** Create the file PATH under ROOT, with its directories. */
+    private static void touch(File root, String path) {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        Utils.writeContents(file, path);
+    }
+
+    @Test
+    public void walkAppliesIgnoreRules() throws IOException {
+        File root = Files.createTempDirectory("gitlet").toFile();
+        touch(root, ".gitlet/commits/x");
+        touch(root, "a.txt");
+        touch(root, "top.log");
+        touch(root, "src/b.java");
+        touch(root, "src/keep.log");
+        touch(root, "src/deep/c.log");
+        touch(root, "build/out/d.class");
+        touch(root, "docs/build");
+        Utils.writeContents(new File(root, WorkingTree.IGNORE_FILE),
+                            "# comment\n\nbuild/\n*.log\n!src/keep.log\n");
+        WorkingTree tree = new WorkingTree(root);
+        assertEquals(Arrays.asList(WorkingTree.IGNORE_FILE, "a.txt", "docs/build",
+                                   "src/b.java", "src/keep.log"),
+                     new ArrayList<String>(tree.files().keySet()));
+        assertTrue(tree.isIgnored("build", true));
+        assertFalse(tree.isIgnored("build", false));
+        assertTrue(tree.isIgnored("src/deep/c.log", false));
+    }
+
+    @Test
+    public void occupiedSeesUntrackedFilesInTheWay() throws IOException {
+        File root = Files.createTempDirectory("gitlet").toFile();
+        touch(root, "f");
+        touch(root, "d/tracked");
+        touch(root, "e/untracked");
+        WorkingTree tree = new WorkingTree(root);
+        HashSet<String> tracked = new HashSet<String>(Arrays.asList("d/tracked"));
+        assertTrue(tree.occupied("f", tracked::contains));
+        assertTrue(tree.occupied("f/g", tracked::contains));
+        assertFalse(tree.occupied("d", tracked::contains));
+        assertTrue(tree.occupied("e", tracked::contains));
+        assertFalse(tree.occupied("new/file", tracked::contains));
+        tracked.add("f");
+        assertFalse(tree.occupied("f/g", tracked::contains));
+    }
+
+}